@@ -0,0 +1,285 @@
+/*
+ *    ArraySpaceSaving.java
+ *    Copyright (C) 2011 University of Waikato, Hamilton, New Zealand
+ *    @author Albert Bifet (abifet at cs dot waikato dot ac dot nz)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package moa.streams.twitter;
+
+import moa.options.IntOption;
+import moa.options.AbstractOptionHandler;
+import moa.core.ObjectRepository;
+import moa.tasks.TaskMonitor;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Implementation of the SpaceSaving algorithm without an object per
+ * counter. Counter i has attribute index i, and its count, token, token
+ * hash and position in a min-heap of counts are stored in parallel arrays.
+ * Tokens are mapped to counters by an open-addressing table with linear
+ * probing.
+ *
+ */
+public class ArraySpaceSaving extends AbstractOptionHandler implements LookupSketch {
+
+    private static final long serialVersionUID = 1L;
+
+    public IntOption capacityOption = new IntOption("capacity", 'c', "Number of attributes to use", 10000);
+
+    /** Number of counters in use */
+    protected int _top = 0;
+
+    protected long[] counts;
+
+    protected String[] tokens;
+
+    protected int[] hashes;
+
+    /** Min-heap of counters ordered by count */
+    protected int[] heap;
+
+    /** Position of each counter in the heap */
+    protected int[] heapPos;
+
+    /** Counter + 1 of each entry of the hash table, 0 if empty */
+    protected int[] table;
+
+    protected int mask;
+
+    protected int numDoc = 0;
+
+    protected double numTerms = 0;
+
+    /**
+     * Initialise a set of counters for String tokens
+     *
+     */
+    @Override
+    protected void prepareForUseImpl(TaskMonitor arg0, ObjectRepository arg1) {
+        int capacity = this.capacityOption.getValue();
+        _top = 0;
+        this.counts = new long[capacity];
+        this.tokens = new String[capacity];
+        this.hashes = new int[capacity];
+        this.heap = new int[capacity];
+        this.heapPos = new int[capacity];
+        int size = Integer.highestOneBit(Math.max(2 * capacity - 1, 1)) << 1;
+        this.table = new int[size];
+        this.mask = size - 1;
+    }
+
+    protected static int hash(String token) {
+        int h = token.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Find the counter of a token.
+     *
+     * @return counter, or -1 if the token is not counted
+     */
+    protected int find(String token, int h) {
+        int pos = h & this.mask;
+        int entry;
+        while ((entry = this.table[pos]) != 0) {
+            int counter = entry - 1;
+            if (this.hashes[counter] == h && token.equals(this.tokens[counter])) {
+                return counter;
+            }
+            pos = (pos + 1) & this.mask;
+        }
+        return -1;
+    }
+
+    protected void insert(int counter) {
+        int pos = this.hashes[counter] & this.mask;
+        while (this.table[pos] != 0) {
+            pos = (pos + 1) & this.mask;
+        }
+        this.table[pos] = counter + 1;
+    }
+
+    /**
+     * Remove a counter from the hash table, shifting back the entries that
+     * follow it so that no tombstones are needed.
+     */
+    protected void delete(int counter) {
+        int pos = this.hashes[counter] & this.mask;
+        while (this.table[pos] != counter + 1) {
+            pos = (pos + 1) & this.mask;
+        }
+        int next = (pos + 1) & this.mask;
+        int entry;
+        while ((entry = this.table[next]) != 0) {
+            int home = this.hashes[entry - 1] & this.mask;
+            // Move the entry back if its home is not between pos and next
+            if (((next - home) & this.mask) >= ((next - pos) & this.mask)) {
+                this.table[pos] = entry;
+                pos = next;
+            }
+            next = (next + 1) & this.mask;
+        }
+        this.table[pos] = 0;
+    }
+
+    public int addToken(String token, int freq, int classIndex) {
+        return addToken(token, freq);
+    }
+
+    /**
+     * Add a token to be counted.
+     *
+     * @param token
+     * @param freq
+     * @return attributeIndex which is useful for constructing Instance objects
+     */
+    public int addToken(String token, int freq) {
+        int h = hash(token);
+        int counter = find(token, h);
+        boolean isNew = false;
+        if (counter == -1) {
+            if (_top < this.counts.length) {
+                counter = _top;
+                _top++;
+                this.heap[counter] = counter;
+                this.heapPos[counter] = counter;
+                isNew = true;
+            } else {
+                // Replace the token with the smallest count
+                counter = this.heap[0];
+                delete(counter);
+            }
+            this.tokens[counter] = token;
+            this.hashes[counter] = h;
+            insert(counter);
+        }
+        this.counts[counter] += freq;
+        if (freq < 0 || isNew) {
+            siftUp(this.heapPos[counter]);
+        } else {
+            siftDown(this.heapPos[counter]);
+        }
+        return counter;
+    }
+
+    protected void siftUp(int pos) {
+        int counter = this.heap[pos];
+        long count = this.counts[counter];
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            int p = this.heap[parent];
+            if (this.counts[p] <= count) {
+                break;
+            }
+            this.heap[pos] = p;
+            this.heapPos[p] = pos;
+            pos = parent;
+        }
+        this.heap[pos] = counter;
+        this.heapPos[counter] = pos;
+    }
+
+    protected void siftDown(int pos) {
+        int counter = this.heap[pos];
+        long count = this.counts[counter];
+        int half = _top >>> 1;
+        while (pos < half) {
+            int child = 2 * pos + 1;
+            int c = this.heap[child];
+            int right = child + 1;
+            if (right < _top && this.counts[this.heap[right]] < this.counts[c]) {
+                child = right;
+                c = this.heap[child];
+            }
+            if (count <= this.counts[c]) {
+                break;
+            }
+            this.heap[pos] = c;
+            this.heapPos[c] = pos;
+            pos = child;
+        }
+        this.heap[pos] = counter;
+        this.heapPos[counter] = pos;
+    }
+
+    /**
+     * Retrieve the (estimated, upper-bound) count for any token
+     *
+     * @param token
+     * @return count (or 0 if not being counted currently, i.e. not frequent enough)
+     */
+    public double getCount(String token) {
+        int counter = find(token, hash(token));
+        return counter == -1 ? 0.0 : this.counts[counter];
+    }
+
+    /**
+     * Get the attribute index of the token specified.
+     *
+     * @param token
+     * @return
+     */
+    public int getAttIndex(String token) {
+        return find(token, hash(token));
+    }
+
+    public int lookup(String token, double[] counts, int i) {
+        int counter = find(token, hash(token));
+        counts[i] = counter == -1 ? 0.0 : this.counts[counter];
+        return counter;
+    }
+
+    /**
+     * Print all counters to System.out in increasing order of count, useful
+     * for debugging
+     *
+     */
+    public void showNodes() {
+        Integer[] sorted = new Integer[_top];
+        for (int i = 0; i < _top; i++) {
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, new Comparator<Integer>() {
+
+            public int compare(Integer a, Integer b) {
+                long ca = counts[a];
+                long cb = counts[b];
+                return ca < cb ? -1 : (ca > cb ? 1 : 0);
+            }
+        });
+        for (int counter : sorted) {
+            System.out.println("" + counter + "," + this.counts[counter] + "," + this.tokens[counter]);
+        }
+    }
+
+    public void addDoc(double docSize) {
+        this.numDoc++;
+        this.numTerms += docSize;
+    }
+
+    public void remove(String token) {
+    }
+
+    public double getFreqWord(String word) {
+        return getCount(word) / this.numTerms;
+    }
+
+    @Override
+    public void getDescription(StringBuilder arg0, int arg1) {
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ *    BoundedRingBuffer.java
+ *    Copyright (C) 2011 University of Waikato, Hamilton, New Zealand
+ *    @author Albert Bifet (abifet at cs dot waikato dot ac dot nz)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package moa.streams.twitter;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded lock-free queue between the threads receiving tweets and the
+ * thread making instances of them, with a policy for the tweets arriving
+ * when it is full.
+ *
+ * The queue is the array of Dmitry Vyukov: each cell has a sequence number
+ * telling whether it is free for the position being written or holds the
+ * element of the position being read, and the head and tail positions are
+ * claimed with a compare and set, so any number of threads may offer and
+ * poll. The capacity is rounded up to a power of two.
+ *
+ * Threads waiting in poll with a timeout, or in put with the BLOCK policy,
+ * sleep on a condition. The lock is only taken by the threads waking them
+ * when some thread is waiting, so the queue stays lock-free otherwise.
+ *
+ * When the queue is full, put
+ *
+ * DROP_OLDEST removes the oldest element to make room for the new one,
+ * DROP_NEWEST drops the new element,
+ * BLOCK waits until the queue is half empty,
+ * SAMPLE keeps the k-th element arriving since the queue became full, in
+ *    place of the oldest one, with probability capacity / (capacity + k),
+ *    as reservoir sampling does, so a burst leaves elements spread over
+ *    it instead of only its end or its beginning.
+ *
+ */
+public class BoundedRingBuffer<E> {
+
+    public static final int DROP_OLDEST = 0;
+
+    public static final int DROP_NEWEST = 1;
+
+    public static final int BLOCK = 2;
+
+    public static final int SAMPLE = 3;
+
+    public static final String[] POLICY_LABELS = {"DropOldest", "DropNewest", "Block", "Sample"};
+
+    public static final String[] POLICY_DESCRIPTIONS = {
+        "Remove the oldest tweet to make room for the new one.",
+        "Drop the new tweet.",
+        "Wait until a tweet is taken.",
+        "Keep a random sample of the tweets of the burst."};
+
+    /** Attempts of a blocked put before waiting on the condition */
+    protected static final int BLOCK_SPINS = 64;
+
+    protected final int mask;
+
+    protected final AtomicReferenceArray<E> elements;
+
+    protected final AtomicLongArray sequences;
+
+    /** Next positions to write and to read */
+    protected final AtomicLong tail = new AtomicLong();
+
+    protected final AtomicLong head = new AtomicLong();
+
+    protected final int policy;
+
+    protected final AtomicLong numEnqueued = new AtomicLong();
+
+    protected final AtomicLong numDropped = new AtomicLong();
+
+    protected final AtomicLong highWaterMark = new AtomicLong();
+
+    /** Number of elements arriving since the queue became full, for SAMPLE */
+    protected final AtomicLong numOverflowing = new AtomicLong();
+
+    protected final Random random = new Random();
+
+    protected final ReentrantLock lock = new ReentrantLock();
+
+    protected final Condition notEmpty = this.lock.newCondition();
+
+    protected final Condition notFull = this.lock.newCondition();
+
+    protected final AtomicInteger numWaitingConsumers = new AtomicInteger();
+
+    protected final AtomicInteger numWaitingProducers = new AtomicInteger();
+
+    public BoundedRingBuffer(int capacity, int policy) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Capacity out of range: " + capacity);
+        }
+        if (policy < DROP_OLDEST || policy > SAMPLE) {
+            throw new IllegalArgumentException("Unknown overflow policy: " + policy);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.elements = new AtomicReferenceArray<E>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            this.sequences.set(i, i);
+        }
+        this.policy = policy;
+    }
+
+    public int getCapacity() {
+        return this.mask + 1;
+    }
+
+    public int getPolicy() {
+        return this.policy;
+    }
+
+    /**
+     * Add an element if the queue is not full.
+     *
+     * @return false if the queue is full
+     */
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        long pos = this.tail.get();
+        int cell;
+        while (true) {
+            cell = (int) pos & this.mask;
+            long dif = this.sequences.get(cell) - pos;
+            if (dif == 0) {
+                if (this.tail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+                pos = this.tail.get();
+            } else if (dif < 0) {
+                // The cell still holds the element of the previous lap
+                return false;
+            } else {
+                pos = this.tail.get();
+            }
+        }
+        this.elements.lazySet(cell, e);
+        // A volatile write, not to be reordered with reading the number
+        // of waiting consumers
+        this.sequences.set(cell, pos + 1);
+        if (this.numWaitingConsumers.get() > 0) {
+            signal(this.notEmpty);
+        }
+        return true;
+    }
+
+    /**
+     * Remove the oldest element.
+     *
+     * @return the element, or null if the queue is empty
+     */
+    public E poll() {
+        long pos = this.head.get();
+        int cell;
+        while (true) {
+            cell = (int) pos & this.mask;
+            long dif = this.sequences.get(cell) - (pos + 1);
+            if (dif == 0) {
+                if (this.head.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+                pos = this.head.get();
+            } else if (dif < 0) {
+                return null;
+            } else {
+                pos = this.head.get();
+            }
+        }
+        E e = this.elements.get(cell);
+        this.elements.lazySet(cell, null);
+        this.sequences.set(cell, pos + this.mask + 1);
+        if (this.numWaitingProducers.get() > 0 && size() <= getCapacity() / 2) {
+            signal(this.notFull);
+        }
+        return e;
+    }
+
+    /**
+     * Remove the oldest element, waiting for one if the queue is empty.
+     *
+     * @return the element, or null if none came before the timeout
+     */
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        E e = poll();
+        if (e != null) {
+            return e;
+        }
+        long nanos = unit.toNanos(timeout);
+        this.lock.lockInterruptibly();
+        this.numWaitingConsumers.incrementAndGet();
+        try {
+            // Polling again after counting this thread as waiting, so an
+            // element offered meanwhile either is seen or signals
+            while ((e = poll()) == null) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = this.notEmpty.awaitNanos(nanos);
+            }
+            return e;
+        } finally {
+            this.numWaitingConsumers.decrementAndGet();
+            this.lock.unlock();
+        }
+    }
+
+    protected void signal(Condition condition) {
+        this.lock.lock();
+        try {
+            condition.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until the queue is at most half full, so that producers are
+     * woken once for many polls.
+     */
+    protected void awaitNotFull() throws InterruptedException {
+        this.lock.lockInterruptibly();
+        this.numWaitingProducers.incrementAndGet();
+        try {
+            while (size() > getCapacity() / 2) {
+                this.notFull.await();
+            }
+        } finally {
+            this.numWaitingProducers.decrementAndGet();
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Add an element, applying the overflow policy if the queue is full.
+     *
+     * @return false if the element was dropped
+     */
+    public boolean put(E e) {
+        boolean overflowing = false;
+        int spins = 0;
+        while (!offer(e)) {
+            if (!overflowing) {
+                overflowing = true;
+                if (this.policy == DROP_NEWEST) {
+                    this.numDropped.incrementAndGet();
+                    return false;
+                }
+                if (this.policy == SAMPLE) {
+                    long k = this.numOverflowing.incrementAndGet();
+                    int capacity = getCapacity();
+                    if (this.random.nextDouble() * (capacity + k) >= capacity) {
+                        this.numDropped.incrementAndGet();
+                        return false;
+                    }
+                }
+            }
+            if (this.policy == BLOCK) {
+                if (++spins < BLOCK_SPINS) {
+                    Thread.yield();
+                    continue;
+                }
+                try {
+                    awaitNotFull();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    this.numDropped.incrementAndGet();
+                    return false;
+                }
+                spins = 0;
+            } else if (poll() != null) {
+                // DROP_OLDEST, or SAMPLE keeping the new element
+                this.numDropped.incrementAndGet();
+            }
+        }
+        if (!overflowing && this.numOverflowing.get() != 0) {
+            this.numOverflowing.set(0);
+        }
+        this.numEnqueued.incrementAndGet();
+        long size = size();
+        long mark;
+        while (size > (mark = this.highWaterMark.get())
+                && !this.highWaterMark.compareAndSet(mark, size)) {
+        }
+        return true;
+    }
+
+    /**
+     * Number of elements in the queue, exact when no other thread is
+     * offering or polling.
+     */
+    public int size() {
+        while (true) {
+            long head = this.head.get();
+            long tail = this.tail.get();
+            if (this.head.get() == head) {
+                return (int) Math.max(0, Math.min(tail - head, getCapacity()));
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Number of elements put in the queue, including the ones dropped
+     * later to make room for newer ones.
+     */
+    public long getNumEnqueued() {
+        return this.numEnqueued.get();
+    }
+
+    public long getNumDropped() {
+        return this.numDropped.get();
+    }
+
+    /**
+     * Largest number of elements the queue has held.
+     */
+    public long getHighWaterMark() {
+        return this.highWaterMark.get();
+    }
+}
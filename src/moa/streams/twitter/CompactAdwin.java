@@ -0,0 +1,466 @@
+/*
+ *    CompactAdwin.java
+ *    Copyright (C) 2011 University of Waikato, Hamilton, New Zealand
+ *    @author Albert Bifet (abifet at cs dot waikato dot ac dot nz)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package moa.streams.twitter;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * ADWIN change detector for sketch counters, giving the same estimations
+ * and detections as moa.classifiers.core.driftdetection.ADWIN.
+ *
+ * Instead of a linked list of bucket rows, buckets are stored in primitive
+ * arrays indexed by row, grown on demand up to MAX_ROWS rows. Once the
+ * last row is full the oldest bucket is dropped, which bounds the window
+ * to about MAXBUCKETS * 2^MAX_ROWS inputs. Runs of zeros, the common input
+ * of a counter whose token does not appear, are appended with addZeros,
+ * which carries them up the rows as counts between two checks of the
+ * window instead of inserting them one by one.
+ *
+ */
+public class CompactAdwin implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final double DELTA = .002;
+
+    public static final int MAXBUCKETS = 5;
+
+    public static final int MAX_ROWS = 24;
+
+    protected static final int ROW_SIZE = MAXBUCKETS + 1;
+
+    protected static final int CLOCK = 32;
+
+    protected static final int MIN_WINDOW_LENGTH = 10;
+
+    protected static final int MIN_SUBWINDOW_LENGTH = 5;
+
+    protected double delta = DELTA;
+
+    protected int time = 0;
+
+    protected int width = 0;
+
+    protected double total = 0;
+
+    protected double variance = 0;
+
+    protected int lastBucketRow = 0;
+
+    /** Number of buckets in each row, row 0 holds the newest buckets */
+    protected byte[] rowCount = new byte[4];
+
+    /** Bucket totals, ROW_SIZE per row, oldest first in each row */
+    protected double[] bucketTotal = new double[4 * ROW_SIZE];
+
+    protected double[] bucketVariance = new double[4 * ROW_SIZE];
+
+    /** Buckets carried to the next row by insertZeros, two halves of ROW_SIZE */
+    protected transient double[] carryTotal;
+
+    protected transient double[] carryVariance;
+
+    public CompactAdwin() {
+    }
+
+    public CompactAdwin(double delta) {
+        this.delta = delta;
+    }
+
+    public double getEstimation() {
+        return this.width > 0 ? this.total / this.width : 0.0;
+    }
+
+    public int getWidth() {
+        return this.width;
+    }
+
+    public double getTotal() {
+        return this.total;
+    }
+
+    public double getVariance() {
+        return this.variance / this.width;
+    }
+
+    /**
+     * Add a new input and check for a change.
+     *
+     * @return true if a change was detected
+     */
+    public boolean setInput(double value) {
+        this.time++;
+        insertElement(value);
+        if (this.time % CLOCK == 0 && this.width > MIN_WINDOW_LENGTH) {
+            return reduceWindow();
+        }
+        return false;
+    }
+
+    /**
+     * Number of inputs to add until the window is next checked for a
+     * change, the last of them included.
+     */
+    public int getInputsToCheck() {
+        int phase = this.time % CLOCK;
+        if (phase < 0) {
+            phase += CLOCK;
+        }
+        return CLOCK - phase;
+    }
+
+    /**
+     * Add n zero inputs, equivalent to calling setInput(0) n times. The
+     * zeros between two checks of the window are appended at once.
+     *
+     * @return true if a change was detected
+     */
+    public boolean addZeros(int n) {
+        boolean change = false;
+        while (n > 0) {
+            int count = Math.min(n, getInputsToCheck());
+            this.time += count;
+            insertZeros(count);
+            n -= count;
+            if (this.time % CLOCK == 0 && this.width > MIN_WINDOW_LENGTH) {
+                change |= reduceWindow();
+            }
+        }
+        return change;
+    }
+
+    protected static int bucketSize(int row) {
+        return 1 << row;
+    }
+
+    protected void insertElement(double value) {
+        this.width++;
+        insertBucket(0, value, 0.0);
+        if (this.width > 1) {
+            double d = value - this.total / (this.width - 1);
+            this.variance += (this.width - 1) * d * d / this.width;
+        }
+        this.total += value;
+        compressBuckets();
+    }
+
+    /**
+     * Append n zero inputs, leaving the same buckets as n calls of
+     * insertElement(0). Two zero buckets merge into a zero bucket, so the
+     * zeros are carried up the rows as a count and only the buckets merged
+     * with older inputs are computed, at most MAXBUCKETS per row.
+     */
+    protected void insertZeros(int n) {
+        if (!canCarry(n)) {
+            // The last row would overflow and drop its oldest bucket in
+            // between the zeros
+            for (int i = 0; i < n; i++) {
+                insertElement(0.0);
+            }
+            return;
+        }
+        if (this.total != 0.0) {
+            for (int i = 0; i < n; i++) {
+                this.width++;
+                if (this.width > 1) {
+                    double d = 0.0 - this.total / (this.width - 1);
+                    this.variance += (this.width - 1) * d * d / this.width;
+                }
+            }
+        } else {
+            this.width += n;
+        }
+        if (this.carryTotal == null) {
+            this.carryTotal = new double[2 * ROW_SIZE];
+            this.carryVariance = new double[2 * ROW_SIZE];
+        }
+        // Buckets entering row i: carried buckets at offset carry, then zeros
+        int carried = 0;
+        int zeros = n;
+        int carry = 0;
+        for (int i = 0; carried + zeros > 0; i++) {
+            if (i == this.rowCount.length) {
+                grow();
+            }
+            int base = i * ROW_SIZE;
+            int k = this.rowCount[i];
+            int count = k + carried + zeros;
+            int merges = count >= ROW_SIZE ? (count - ROW_SIZE + 2) / 2 : 0;
+            int next = ROW_SIZE - carry;
+            int nextCarried = Math.min(merges, (k + carried + 1) / 2);
+            // The two oldest buckets merge until the row has room again
+            int size = bucketSize(i);
+            for (int p = 0; p < nextCarried; p++) {
+                int q = 2 * p;
+                double t1 = q < k ? this.bucketTotal[base + q]
+                        : (q < k + carried ? this.carryTotal[carry + q - k] : 0.0);
+                double v1 = q < k ? this.bucketVariance[base + q]
+                        : (q < k + carried ? this.carryVariance[carry + q - k] : 0.0);
+                q++;
+                double t2 = q < k ? this.bucketTotal[base + q]
+                        : (q < k + carried ? this.carryTotal[carry + q - k] : 0.0);
+                double v2 = q < k ? this.bucketVariance[base + q]
+                        : (q < k + carried ? this.carryVariance[carry + q - k] : 0.0);
+                double u1 = t1 / size;
+                double u2 = t2 / size;
+                double incVariance = size * size * (u1 - u2) * (u1 - u2) / (size + size);
+                this.carryTotal[next + p] = t1 + t2;
+                this.carryVariance[next + p] = v1 + v2 + incVariance;
+            }
+            // The buckets left, oldest first
+            int r = 0;
+            for (int q = 2 * merges; q < count; q++, r++) {
+                if (q < k) {
+                    this.bucketTotal[base + r] = this.bucketTotal[base + q];
+                    this.bucketVariance[base + r] = this.bucketVariance[base + q];
+                } else if (q < k + carried) {
+                    this.bucketTotal[base + r] = this.carryTotal[carry + q - k];
+                    this.bucketVariance[base + r] = this.carryVariance[carry + q - k];
+                } else {
+                    this.bucketTotal[base + r] = 0.0;
+                    this.bucketVariance[base + r] = 0.0;
+                }
+            }
+            this.rowCount[i] = (byte) r;
+            if (r > 0 && i > this.lastBucketRow) {
+                this.lastBucketRow = i;
+            }
+            carried = nextCarried;
+            zeros = merges - nextCarried;
+            carry = next;
+        }
+    }
+
+    /**
+     * Whether n zeros can be carried up the rows without filling the last
+     * possible row.
+     */
+    protected boolean canCarry(int n) {
+        int carried = 0;
+        int zeros = n;
+        for (int i = 0; carried + zeros > 0; i++) {
+            int k = i < this.rowCount.length ? this.rowCount[i] : 0;
+            int count = k + carried + zeros;
+            if (count < ROW_SIZE) {
+                return true;
+            }
+            if (i + 1 == MAX_ROWS) {
+                return false;
+            }
+            int merges = (count - ROW_SIZE + 2) / 2;
+            carried = Math.min(merges, (k + carried + 1) / 2);
+            zeros = merges - carried;
+        }
+        return true;
+    }
+
+    protected void insertBucket(int row, double value, double var) {
+        int k = this.rowCount[row];
+        this.bucketTotal[row * ROW_SIZE + k] = value;
+        this.bucketVariance[row * ROW_SIZE + k] = var;
+        this.rowCount[row] = (byte) (k + 1);
+    }
+
+    /** Remove the n oldest buckets of a row */
+    protected void removeBuckets(int row, int n) {
+        int base = row * ROW_SIZE;
+        int k = this.rowCount[row];
+        System.arraycopy(this.bucketTotal, base + n, this.bucketTotal, base, k - n);
+        System.arraycopy(this.bucketVariance, base + n, this.bucketVariance, base, k - n);
+        this.rowCount[row] = (byte) (k - n);
+    }
+
+    protected void compressBuckets() {
+        for (int i = 0; this.rowCount[i] == ROW_SIZE; i++) {
+            if (i == this.lastBucketRow) {
+                if (i + 1 == MAX_ROWS) {
+                    // No more rows: forget the oldest bucket instead
+                    deleteElement();
+                    return;
+                }
+                if (i + 1 == this.rowCount.length) {
+                    grow();
+                }
+                this.lastBucketRow++;
+            }
+            int base = i * ROW_SIZE;
+            int n = bucketSize(i);
+            double u1 = this.bucketTotal[base] / n;
+            double u2 = this.bucketTotal[base + 1] / n;
+            double incVariance = n * n * (u1 - u2) * (u1 - u2) / (n + n);
+            insertBucket(i + 1, this.bucketTotal[base] + this.bucketTotal[base + 1],
+                    this.bucketVariance[base] + this.bucketVariance[base + 1] + incVariance);
+            removeBuckets(i, 2);
+        }
+    }
+
+    protected void grow() {
+        int rows = Math.min(this.rowCount.length * 2, MAX_ROWS);
+        this.rowCount = Arrays.copyOf(this.rowCount, rows);
+        this.bucketTotal = Arrays.copyOf(this.bucketTotal, rows * ROW_SIZE);
+        this.bucketVariance = Arrays.copyOf(this.bucketVariance, rows * ROW_SIZE);
+    }
+
+    /** Drop the oldest bucket of the window */
+    protected int deleteElement() {
+        int row = this.lastBucketRow;
+        int base = row * ROW_SIZE;
+        int n1 = bucketSize(row);
+        this.width -= n1;
+        this.total -= this.bucketTotal[base];
+        double u1 = this.bucketTotal[base] / n1;
+        double d = u1 - this.total / this.width;
+        this.variance -= this.bucketVariance[base] + n1 * this.width * d * d / (n1 + this.width);
+        removeBuckets(row, 1);
+        if (this.rowCount[row] == 0 && row > 0) {
+            this.lastBucketRow--;
+        }
+        return n1;
+    }
+
+    protected boolean reduceWindow() {
+        boolean change = false;
+        boolean reduceWidth = true;
+        while (reduceWidth) {
+            reduceWidth = false;
+            boolean exit = false;
+            int n0 = 0;
+            int n1 = this.width;
+            double u0 = 0;
+            double u1 = this.total;
+            double v0 = 0;
+            double v1 = this.variance;
+            // The window only changes when a bucket is deleted, which ends
+            // the pass
+            double dd = Math.log(2 * Math.log(this.width) / this.delta);
+            double v = getVariance();
+            for (int i = this.lastBucketRow; i >= 0 && !exit; i--) {
+                int base = i * ROW_SIZE;
+                int k1 = this.rowCount[i];
+                double n2 = bucketSize(i);
+                for (int k = 0; k < k1; k++) {
+                    double u2 = this.bucketTotal[base + k];
+                    if (n0 > 0) {
+                        double d = u0 / n0 - u2 / n2;
+                        v0 += this.bucketVariance[base + k] + (double) n0 * n2 * d * d / (n0 + n2);
+                    }
+                    if (n1 > 0) {
+                        double d = u1 / n1 - u2 / n2;
+                        v1 -= this.bucketVariance[base + k] + (double) n1 * n2 * d * d / (n1 + n2);
+                    }
+                    n0 += bucketSize(i);
+                    n1 -= bucketSize(i);
+                    u0 += u2;
+                    u1 -= u2;
+                    if (i == 0 && k == k1 - 1) {
+                        exit = true;
+                        break;
+                    }
+                    double absValue = (u0 / n0) - (u1 / n1);
+                    if (n1 > MIN_SUBWINDOW_LENGTH + 1 && n0 > MIN_SUBWINDOW_LENGTH + 1
+                            && cutExpression(n0, n1, absValue, dd, v)) {
+                        reduceWidth = true;
+                        change = true;
+                        if (this.width > 0) {
+                            n0 -= deleteElement();
+                            exit = true;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        return change;
+    }
+
+    protected boolean cutExpression(int n0, int n1, double absValue, double dd, double v) {
+        double m = (1.0 / (n0 - MIN_SUBWINDOW_LENGTH + 1)) + (1.0 / (n1 - MIN_SUBWINDOW_LENGTH + 1));
+        double epsilon = Math.sqrt(2 * m * v * dd) + 2.0 / 3.0 * dd * m;
+        return Math.abs(absValue) > epsilon;
+    }
+
+    /**
+     * Empty the window, keeping the allocated arrays.
+     */
+    public void reset() {
+        this.time = 0;
+        this.width = 0;
+        this.total = 0;
+        this.variance = 0;
+        this.lastBucketRow = 0;
+        Arrays.fill(this.rowCount, (byte) 0);
+    }
+
+    /**
+     * Write the window, only the rows in use.
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeDouble(this.delta);
+        out.writeInt(this.time);
+        out.writeInt(this.width);
+        out.writeDouble(this.total);
+        out.writeDouble(this.variance);
+        out.writeInt(this.lastBucketRow);
+        for (int row = 0; row <= this.lastBucketRow; row++) {
+            int base = row * ROW_SIZE;
+            out.writeByte(this.rowCount[row]);
+            for (int k = 0; k < this.rowCount[row]; k++) {
+                out.writeDouble(this.bucketTotal[base + k]);
+                out.writeDouble(this.bucketVariance[base + k]);
+            }
+        }
+    }
+
+    /**
+     * Replace the window by the one written by write.
+     */
+    public void read(DataInput in) throws IOException {
+        this.delta = in.readDouble();
+        this.time = in.readInt();
+        this.width = in.readInt();
+        this.total = in.readDouble();
+        this.variance = in.readDouble();
+        int lastRow = in.readInt();
+        if (lastRow < 0 || lastRow >= MAX_ROWS) {
+            throw new IOException("Bucket row out of range: " + lastRow);
+        }
+        this.lastBucketRow = lastRow;
+        Arrays.fill(this.rowCount, (byte) 0);
+        while (this.rowCount.length <= lastRow) {
+            grow();
+        }
+        for (int row = 0; row <= lastRow; row++) {
+            int base = row * ROW_SIZE;
+            int count = in.readByte();
+            if (count < 0 || count > ROW_SIZE) {
+                throw new IOException("Bucket count out of range: " + count);
+            }
+            this.rowCount[row] = (byte) count;
+            for (int k = 0; k < count; k++) {
+                this.bucketTotal[base + k] = in.readDouble();
+                this.bucketVariance[base + k] = in.readDouble();
+            }
+        }
+    }
+}
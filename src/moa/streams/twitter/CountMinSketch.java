@@ -0,0 +1,424 @@
+/*
+ *    CountMinSketch.java
+ *    Copyright (C) 2011 University of Waikato, Hamilton, New Zealand
+ *    @author Albert Bifet (abifet at cs dot waikato dot ac dot nz)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package moa.streams.twitter;
+
+import moa.options.IntOption;
+import moa.options.AbstractOptionHandler;
+import moa.core.ObjectRepository;
+import moa.tasks.TaskMonitor;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Count-Min sketch (Cormode and Muthukrishnan) with conservative update,
+ * for counting String tokens.
+ *
+ * getCount estimates the count of any token, counted or not, with an error
+ * that depends on width and depth but not on the number of tokens. Only the
+ * capacity tokens with the largest estimations, kept in a min-heap, have an
+ * attribute index. A token entering the heap takes the attribute index of
+ * the token it replaces.
+ *
+ * Sketches with the same width, depth and seed are merged by adding their
+ * tables, which gives the same guarantees as a sketch of the union of both
+ * streams, and re-estimating the heavy hitters of both.
+ *
+ */
+public class CountMinSketch extends AbstractOptionHandler implements MergeableSketch, LookupSketch {
+
+    private static final long serialVersionUID = 1L;
+
+    public IntOption capacityOption = new IntOption("capacity", 'c', "Number of attributes to use", 10000);
+
+    public IntOption widthOption = new IntOption("width", 'w',
+            "Number of counters in each row of the sketch.", 1 << 16, 1, Integer.MAX_VALUE);
+
+    public IntOption depthOption = new IntOption("depth", 'd',
+            "Number of rows of the sketch.", 4, 1, 32);
+
+    public IntOption randomSeedOption = new IntOption("randomSeed", 'r',
+            "Seed for the hash functions.", 1);
+
+    protected int width;
+
+    protected int depth;
+
+    /** Counters, row after row */
+    protected long[] table;
+
+    protected int[] seeds;
+
+    /** Reused to hold the cells of the token being updated */
+    protected int[] cells;
+
+    // Heavy hitters: attribute index of each token and a min-heap of
+    // attribute indices ordered by estimation
+
+    protected Map<String, Integer> _map = null;
+
+    protected int _top = 0;
+
+    protected String[] tokens;
+
+    protected long[] estimates;
+
+    protected int[] heap;
+
+    protected int[] heapPos;
+
+    protected int numDoc = 0;
+
+    protected double numTerms = 0;
+
+    /**
+     * Initialise the sketch and the set of heavy hitters
+     *
+     */
+    @Override
+    protected void prepareForUseImpl(TaskMonitor arg0, ObjectRepository arg1) {
+        this.width = this.widthOption.getValue();
+        this.depth = this.depthOption.getValue();
+        long size = (long) this.width * this.depth;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Sketch of width " + this.width + " and depth "
+                    + this.depth + " has " + size + " counters, more than the "
+                    + Integer.MAX_VALUE + " an array can hold");
+        }
+        this.table = new long[(int) size];
+        this.seeds = new int[this.depth];
+        this.cells = new int[this.depth];
+        Random random = new Random(this.randomSeedOption.getValue());
+        for (int i = 0; i < this.depth; i++) {
+            this.seeds[i] = random.nextInt() | 1;
+        }
+        int capacity = this.capacityOption.getValue();
+        _map = new HashMap<String, Integer>();
+        _top = 0;
+        this.tokens = new String[capacity];
+        this.estimates = new long[capacity];
+        this.heap = new int[capacity];
+        this.heapPos = new int[capacity];
+    }
+
+    /**
+     * Compute the cell of the token in every row.
+     */
+    protected void hash(String token) {
+        for (int i = 0; i < this.depth; i++) {
+            int x = hash(token, this.seeds[i]);
+            this.cells[i] = i * this.width + (int) ((x & 0xFFFFFFFFL) % this.width);
+        }
+    }
+
+    /**
+     * Hash of the characters of a token, a polynomial in the seed. Rows
+     * have different seeds, so tokens colliding in one row, as "Aa" and
+     * "BB" do with String.hashCode, seldom collide in the others.
+     */
+    protected static int hash(String token, int seed) {
+        int x = seed;
+        for (int i = 0; i < token.length(); i++) {
+            x = x * seed + token.charAt(i);
+        }
+        x ^= x >>> 16;
+        x *= 0x85EBCA6B;
+        x ^= x >>> 13;
+        x *= 0xC2B2AE35;
+        x ^= x >>> 16;
+        return x;
+    }
+
+    protected long estimate() {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < this.depth; i++) {
+            min = Math.min(min, this.table[this.cells[i]]);
+        }
+        return min;
+    }
+
+    public int addToken(String token, int freq, int classIndex) {
+        return addToken(token, freq);
+    }
+
+    /**
+     * Add a token to be counted.
+     *
+     * @param token
+     * @param freq
+     * @return attributeIndex which is useful for constructing Instance
+     * objects, or -1 if the token is not one of the heavy hitters
+     */
+    public int addToken(String token, int freq) {
+        hash(token);
+        long estimate;
+        if (freq >= 0) {
+            // Conservative update: raise only the cells below the new estimation
+            estimate = estimate() + freq;
+            for (int i = 0; i < this.depth; i++) {
+                if (this.table[this.cells[i]] < estimate) {
+                    this.table[this.cells[i]] = estimate;
+                }
+            }
+        } else {
+            for (int i = 0; i < this.depth; i++) {
+                this.table[this.cells[i]] += freq;
+            }
+            estimate = estimate();
+        }
+
+        Integer index = _map.get(token);
+        int attIndex;
+        if (index != null) {
+            attIndex = index;
+            this.estimates[attIndex] = estimate;
+            if (freq < 0) {
+                siftUp(this.heapPos[attIndex]);
+            } else {
+                siftDown(this.heapPos[attIndex]);
+            }
+        } else if (_top < this.tokens.length) {
+            attIndex = _top;
+            _top++;
+            this.tokens[attIndex] = token;
+            this.estimates[attIndex] = estimate;
+            this.heap[attIndex] = attIndex;
+            this.heapPos[attIndex] = attIndex;
+            _map.put(token, attIndex);
+            siftUp(attIndex);
+        } else if (estimate > this.estimates[this.heap[0]]) {
+            // Replace the heavy hitter with the smallest estimation
+            attIndex = this.heap[0];
+            _map.remove(this.tokens[attIndex]);
+            _map.put(token, attIndex);
+            this.tokens[attIndex] = token;
+            this.estimates[attIndex] = estimate;
+            siftDown(0);
+        } else {
+            attIndex = -1;
+        }
+        return attIndex;
+    }
+
+    protected void siftUp(int pos) {
+        int index = this.heap[pos];
+        long estimate = this.estimates[index];
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            int p = this.heap[parent];
+            if (this.estimates[p] <= estimate) {
+                break;
+            }
+            this.heap[pos] = p;
+            this.heapPos[p] = pos;
+            pos = parent;
+        }
+        this.heap[pos] = index;
+        this.heapPos[index] = pos;
+    }
+
+    protected void siftDown(int pos) {
+        int index = this.heap[pos];
+        long estimate = this.estimates[index];
+        int half = _top >>> 1;
+        while (pos < half) {
+            int child = 2 * pos + 1;
+            int c = this.heap[child];
+            int right = child + 1;
+            if (right < _top && this.estimates[this.heap[right]] < this.estimates[c]) {
+                child = right;
+                c = this.heap[child];
+            }
+            if (estimate <= this.estimates[c]) {
+                break;
+            }
+            this.heap[pos] = c;
+            this.heapPos[c] = pos;
+            pos = child;
+        }
+        this.heap[pos] = index;
+        this.heapPos[index] = pos;
+    }
+
+    public void merge(Sketch other) {
+        if (other == null || other.getClass() != getClass()) {
+            throw new IllegalArgumentException("Cannot merge " + getClass().getName()
+                    + " with " + (other == null ? null : other.getClass().getName()));
+        }
+        CountMinSketch o = (CountMinSketch) other;
+        if (o.width != this.width || o.depth != this.depth
+                || o.randomSeedOption.getValue() != this.randomSeedOption.getValue()) {
+            throw new IllegalArgumentException(
+                    "Cannot merge sketches with different width, depth or seed");
+        }
+        for (int i = 0; i < this.table.length; i++) {
+            this.table[i] += o.table[i];
+        }
+        this.numDoc += o.numDoc;
+        this.numTerms += o.numTerms;
+        // Re-estimate all the candidates with the merged table
+        List<String> candidates = new ArrayList<String>(_map.keySet());
+        for (String token : o._map.keySet()) {
+            if (!_map.containsKey(token)) {
+                candidates.add(token);
+            }
+        }
+        for (int i = 0; i < _top; i++) {
+            hash(this.tokens[i]);
+            this.estimates[i] = estimate();
+        }
+        for (int pos = 1; pos < _top; pos++) {
+            siftUp(pos);
+        }
+        for (String token : candidates) {
+            if (!_map.containsKey(token)) {
+                offer(token);
+            }
+        }
+    }
+
+    /**
+     * Add a token to the heavy hitters if its estimation is large enough.
+     */
+    protected void offer(String token) {
+        hash(token);
+        long estimate = estimate();
+        if (_top < this.tokens.length) {
+            int attIndex = _top;
+            _top++;
+            this.tokens[attIndex] = token;
+            this.estimates[attIndex] = estimate;
+            this.heap[attIndex] = attIndex;
+            this.heapPos[attIndex] = attIndex;
+            _map.put(token, attIndex);
+            siftUp(attIndex);
+        } else if (estimate > this.estimates[this.heap[0]]) {
+            int attIndex = this.heap[0];
+            _map.remove(this.tokens[attIndex]);
+            _map.put(token, attIndex);
+            this.tokens[attIndex] = token;
+            this.estimates[attIndex] = estimate;
+            siftDown(0);
+        }
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(this.capacityOption.getValue());
+        out.writeInt(this.width);
+        out.writeInt(this.depth);
+        out.writeInt(this.randomSeedOption.getValue());
+        out.writeInt(this.numDoc);
+        out.writeDouble(this.numTerms);
+        for (int i = 0; i < this.table.length; i++) {
+            out.writeLong(this.table[i]);
+        }
+        out.writeInt(_top);
+        for (int i = 0; i < _top; i++) {
+            out.writeUTF(this.tokens[i]);
+        }
+    }
+
+    public void read(DataInput in) throws IOException {
+        this.capacityOption.setValue(in.readInt());
+        this.widthOption.setValue(in.readInt());
+        this.depthOption.setValue(in.readInt());
+        this.randomSeedOption.setValue(in.readInt());
+        prepareForUseImpl(null, null);
+        this.numDoc = in.readInt();
+        this.numTerms = in.readDouble();
+        for (int i = 0; i < this.table.length; i++) {
+            this.table[i] = in.readLong();
+        }
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            offer(in.readUTF());
+        }
+    }
+
+    /**
+     * Retrieve the estimated, upper-bound, count for any token
+     *
+     * @param token
+     * @return count
+     */
+    public double getCount(String token) {
+        hash(token);
+        return estimate();
+    }
+
+    /**
+     * Get the attribute index of the token specified.
+     *
+     * @param token
+     * @return attribute index, or -1 if the token is not a heavy hitter
+     */
+    public int getAttIndex(String token) {
+        Integer index = _map.get(token);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Only the heavy hitters are looked up in the rows.
+     */
+    public int lookup(String token, double[] counts, int i) {
+        Integer index = _map.get(token);
+        if (index == null) {
+            counts[i] = 0.0;
+            return -1;
+        }
+        hash(token);
+        counts[i] = estimate();
+        return index;
+    }
+
+    /**
+     * Print the heavy hitters to System.out, in heap order, useful for
+     * debugging
+     *
+     */
+    public void showNodes() {
+        for (int pos = 0; pos < _top; pos++) {
+            int index = this.heap[pos];
+            System.out.println("" + index + "," + this.estimates[index] + "," + this.tokens[index]);
+        }
+    }
+
+    public void addDoc(double docSize) {
+        this.numDoc++;
+        this.numTerms += docSize;
+    }
+
+    public void remove(String token) {
+    }
+
+    public double getFreqWord(String word) {
+        return getCount(word) / this.numTerms;
+    }
+
+    @Override
+    public void getDescription(StringBuilder arg0, int arg1) {
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ *    EmoticonDictionary.java
+ *    Copyright (C) 2011 University of Waikato, Hamilton, New Zealand
+ *    @author Albert Bifet (abifet at cs dot waikato dot ac dot nz)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package moa.streams.twitter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dictionary of emoticons, or emoji, and of the class label each one gives
+ * to a tweet, matched with an Aho-Corasick automaton.
+ *
+ * The automaton is compiled into a table with one transition per state and
+ * character of the emoticons, so finding all the emoticons of a tweet costs
+ * one table lookup per character whatever the size of the dictionary.
+ * Emoticons are found from left to right, preferring the longest one among
+ * those starting at the same position, and do not overlap.
+ *
+ * A dictionary file has one emoticon per line, preceded by its label and a
+ * tab. Empty lines and lines starting with # are skipped. Labels are
+ * ordered by their first appearance, which is also their priority when a
+ * tweet has emoticons with different labels.
+ *
+ * The automaton is an immutable object, compiled when getDefault or load
+ * return and after the dictionary changes, so threads cleaning tweets may
+ * share a dictionary once it is no longer changed.
+ *
+ */
+public class EmoticonDictionary {
+
+    /** Label of a tweet without emoticons */
+    public static final String NO_LABEL = "N";
+
+    /**
+     * Emoticons of the default dictionary. They have no hyphen, which
+     * TweetCleaner removes unless a dictionary uses it, so :-) is read as :)
+     */
+    public static final String[] HAPPY_EMOTICONS = {"=)", "=D", ":)", "=P", ":P",
+        ":]", "=]", ";)", ":}", ":p", "=p", ": P", ":D", "=d"};
+
+    public static final String[] SAD_EMOTICONS = {"=(", ":(", ":{", ":[",
+        "=[", "D:", "={"};
+
+    protected Map<String, Integer> emoticons = new LinkedHashMap<String, Integer>();
+
+    protected List<String> labels = new ArrayList<String>();
+
+    /** Automaton of the emoticons, or null after they change */
+    protected volatile Automaton automaton;
+
+    public EmoticonDictionary() {
+    }
+
+    /**
+     * Dictionary of the emoticons used to label tweets as happy (H) or sad (S).
+     */
+    public static EmoticonDictionary getDefault() {
+        EmoticonDictionary dictionary = new EmoticonDictionary();
+        for (String emoticon : HAPPY_EMOTICONS) {
+            dictionary.add(emoticon, "H");
+        }
+        for (String emoticon : SAD_EMOTICONS) {
+            dictionary.add(emoticon, "S");
+        }
+        dictionary.compile();
+        return dictionary;
+    }
+
+    /**
+     * Read a dictionary file, in UTF-8.
+     */
+    public static EmoticonDictionary load(File file) throws IOException {
+        EmoticonDictionary dictionary = new EmoticonDictionary();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                int tab = line.indexOf('\t');
+                if (tab <= 0 || tab == line.length() - 1) {
+                    throw new IOException(file + ":" + lineNumber + ": expected a label, a tab and an emoticon");
+                }
+                dictionary.add(line.substring(tab + 1), line.substring(0, tab));
+            }
+        } finally {
+            reader.close();
+        }
+        dictionary.compile();
+        return dictionary;
+    }
+
+    /**
+     * Add an emoticon, or change its label.
+     */
+    public void add(String emoticon, String label) {
+        if (emoticon.length() == 0) {
+            throw new IllegalArgumentException("Empty emoticon");
+        }
+        if (label.equals(NO_LABEL)) {
+            throw new IllegalArgumentException(NO_LABEL + " is the label of tweets without emoticons");
+        }
+        int labelIndex = this.labels.indexOf(label);
+        if (labelIndex == -1) {
+            labelIndex = this.labels.size();
+            this.labels.add(label);
+        }
+        this.emoticons.put(emoticon, labelIndex);
+        this.automaton = null;
+    }
+
+    /**
+     * Labels, in order of priority.
+     */
+    public List<String> getLabels() {
+        return this.labels;
+    }
+
+    public String getLabel(int labelIndex) {
+        return this.labels.get(labelIndex);
+    }
+
+    /**
+     * Emoticons, in the order they were added.
+     */
+    public List<String> getEmoticons() {
+        return new ArrayList<String>(this.emoticons.keySet());
+    }
+
+    /**
+     * Whether the character is part of an emoticon.
+     */
+    public boolean isEmoticonChar(char c) {
+        return compile().symbol(c) != 0;
+    }
+
+    /**
+     * Compile the automaton of the emoticons, if they changed since it was
+     * last compiled. Adding emoticons while other threads search is not
+     * supported.
+     */
+    public Automaton compile() {
+        Automaton a = this.automaton;
+        if (a == null) {
+            a = new Automaton(this.emoticons);
+            this.automaton = a;
+        }
+        return a;
+    }
+
+    /**
+     * Find the first emoticon in s[from, to).
+     *
+     * @param match receives the length and the label index of the emoticon
+     * @return the position of the emoticon, or -1 if there is none
+     */
+    public int find(char[] s, int from, int to, int[] match) {
+        Automaton a = compile();
+        int state = 0;
+        int start = -1;
+        for (int i = from; i < to; i++) {
+            state = a.transitions[state * a.numSymbols + a.symbol(s[i])];
+            if (start != -1 && i - a.depths[state] + 1 > start) {
+                // No emoticon in progress starts at or before the one found
+                break;
+            }
+            int length = a.outputLengths[state];
+            if (length > 0) {
+                int position = i - length + 1;
+                if (start == -1 || position < start
+                        || (position == start && length > match[0])) {
+                    start = position;
+                    match[0] = length;
+                    match[1] = a.outputLabels[state];
+                }
+            }
+        }
+        return start;
+    }
+
+    /**
+     * Aho-Corasick automaton of a set of emoticons. It is not changed once
+     * built, and its final fields make it safe to share between threads.
+     */
+    public static final class Automaton {
+
+        /** Symbol of each ASCII character, 0 for the characters of no emoticon */
+        protected final int[] asciiSymbols;
+
+        /** Other characters of the emoticons, sorted, with symbols from numAsciiSymbols + 1 */
+        protected final char[] otherChars;
+
+        protected final int numAsciiSymbols;
+
+        protected final int numSymbols;
+
+        /** Next state for each state and symbol */
+        protected final int[] transitions;
+
+        /** Length of the longest prefix of an emoticon ending at each state */
+        protected final int[] depths;
+
+        /** Length and label of the longest emoticon ending at each state, or 0 */
+        protected final int[] outputLengths;
+
+        protected final int[] outputLabels;
+
+        protected Automaton(Map<String, Integer> emoticons) {
+            // Alphabet
+            int[] ascii = new int[128];
+            StringBuilder others = new StringBuilder();
+            for (String emoticon : emoticons.keySet()) {
+                for (int i = 0; i < emoticon.length(); i++) {
+                    char c = emoticon.charAt(i);
+                    if (c < 128) {
+                        ascii[c] = 1;
+                    } else if (others.indexOf(String.valueOf(c)) == -1) {
+                        others.append(c);
+                    }
+                }
+            }
+            int numAscii = 0;
+            for (int c = 0; c < 128; c++) {
+                if (ascii[c] != 0) {
+                    ascii[c] = ++numAscii;
+                }
+            }
+            this.asciiSymbols = ascii;
+            this.numAsciiSymbols = numAscii;
+            this.otherChars = others.toString().toCharArray();
+            Arrays.sort(this.otherChars);
+            this.numSymbols = this.numAsciiSymbols + 1 + this.otherChars.length;
+
+            // Trie, with -1 for missing transitions
+            int maxStates = 1;
+            for (String emoticon : emoticons.keySet()) {
+                maxStates += emoticon.length();
+            }
+            int[] next = new int[maxStates * this.numSymbols];
+            Arrays.fill(next, -1);
+            int[] depth = new int[maxStates];
+            int[] outputLength = new int[maxStates];
+            int[] outputLabel = new int[maxStates];
+            int numStates = 1;
+            for (Map.Entry<String, Integer> e : emoticons.entrySet()) {
+                String emoticon = e.getKey();
+                int state = 0;
+                for (int i = 0; i < emoticon.length(); i++) {
+                    int t = state * this.numSymbols + symbol(emoticon.charAt(i));
+                    if (next[t] == -1) {
+                        next[t] = numStates;
+                        depth[numStates] = i + 1;
+                        numStates++;
+                    }
+                    state = next[t];
+                }
+                outputLength[state] = emoticon.length();
+                outputLabel[state] = e.getValue();
+            }
+
+            // Failure links, in breadth first order, turning the trie into a
+            // table of transitions
+            int[] fail = new int[numStates];
+            int[] queue = new int[numStates];
+            int head = 0;
+            int tail = 0;
+            for (int a = 0; a < this.numSymbols; a++) {
+                if (next[a] == -1) {
+                    next[a] = 0;
+                } else {
+                    fail[next[a]] = 0;
+                    queue[tail++] = next[a];
+                }
+            }
+            while (head < tail) {
+                int state = queue[head++];
+                if (outputLength[state] == 0) {
+                    outputLength[state] = outputLength[fail[state]];
+                    outputLabel[state] = outputLabel[fail[state]];
+                }
+                for (int a = 0; a < this.numSymbols; a++) {
+                    int t = state * this.numSymbols + a;
+                    if (next[t] == -1) {
+                        next[t] = next[fail[state] * this.numSymbols + a];
+                    } else {
+                        fail[next[t]] = next[fail[state] * this.numSymbols + a];
+                        queue[tail++] = next[t];
+                    }
+                }
+            }
+            this.transitions = Arrays.copyOf(next, numStates * this.numSymbols);
+            this.depths = Arrays.copyOf(depth, numStates);
+            this.outputLengths = Arrays.copyOf(outputLength, numStates);
+            this.outputLabels = Arrays.copyOf(outputLabel, numStates);
+        }
+
+        protected int symbol(char c) {
+            if (c < 128) {
+                return this.asciiSymbols[c];
+            }
+            int i = Arrays.binarySearch(this.otherChars, c);
+            return i >= 0 ? this.numAsciiSymbols + 1 + i : 0;
+        }
+    }
+}
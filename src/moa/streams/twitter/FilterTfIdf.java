@@ -25,11 +25,20 @@ import weka.core.Instance;
 import weka.core.SparseInstance;
 
 import java.util.ArrayList;
-import java.util.Map;
-import java.util.HashMap;
+import java.util.Arrays;
 
 /**
  * The class for filtering a Tweet using Tf-Idf weightings
+ *
+ * The message is tokenized in a char array reused from tweet to tweet, and
+ * its terms are counted in an open addressing table that is only cleared,
+ * so filtering a tweet allocates little more than the Instance. The String
+ * of a term, needed by the sketch, is taken from a cache of the last terms
+ * seen. Terms are added to the sketch in order of first occurrence, and the
+ * sparse instance has its indices in increasing order. A filter must not be
+ * shared between threads, but tokenizing, updating the sketch and making
+ * the instance are separate steps so that TweetPipeline can run them on
+ * different threads.
  * 
  * @author Kenneth Gibson (kjjg1@waikato.ac.nz)
  *
@@ -42,6 +51,19 @@ public class FilterTfIdf {
 
     protected double numOfDocs = 0;	//Number of documents in total.
 
+    protected TermCounts terms = new TermCounts();
+
+    /** Terms of the message, and their counts, attribute indices and document frequencies */
+    protected String[] termArray = new String[64];
+
+    protected int[] countArray = new int[64];
+
+    protected int[] addIndexArray = new int[64];
+
+    protected int[] attIndexArray = new int[64];
+
+    protected double[] docFreqArray = new double[64];
+
     public FilterTfIdf(Sketch sketch) {
         this.frequentItemMiner = sketch;
     }
@@ -50,88 +72,153 @@ public class FilterTfIdf {
      * Takes a String, filters it, and calculates the tf-idf values
      * of each token in the string.
      *
-     * @param s - the String to be filtered
+     * @param s - the String to be filtered, a line of a .tweet file
      * @return the filtered Instance object
      */
     public Instance filter(String s, InstancesHeader header) {
+        LabeledTweet tweet = LabeledTweet.parse(s);
+        if (tweet == null) {
+            throw new IllegalArgumentException("No label in " + s);
+        }
+        return filter(tweet, header);
+    }
+
+    /**
+     * Takes a tweet, filters its message, and calculates the tf-idf values
+     * of each token in the message.
+     *
+     * @param tweet - the tweet to be filtered
+     * @return the filtered Instance object
+     */
+    public Instance filter(LabeledTweet tweet, InstancesHeader header) {
+        int classIndex = header.classAttribute().indexOfValue(tweet.getLabel());
+        int docSize = this.terms.tokenize(tweet.getMessage());
+        int numTerms = this.terms.size();
+        if (this.termArray.length < numTerms) {
+            int length = Math.max(numTerms, 2 * this.termArray.length);
+            this.termArray = new String[length];
+            this.countArray = new int[length];
+            this.addIndexArray = new int[length];
+            this.attIndexArray = new int[length];
+            this.docFreqArray = new double[length];
+        }
+        for (int t = 0; t < numTerms; t++) {
+            this.termArray[t] = this.terms.getTerm(t);
+            this.countArray[t] = this.terms.getCount(t);
+        }
+        updateSketch(this.termArray, this.countArray, numTerms, docSize, classIndex, header,
+                this.addIndexArray, this.attIndexArray, this.docFreqArray);
+        return vectorize(this.countArray, numTerms, docSize, this.attIndexArray, this.docFreqArray,
+                this.numOfDocs, classIndex, header, header.numAttributes());
+    }
+
+    /**
+     * Count a document in the sketch, and add the attributes of its new
+     * frequent terms to the header.
+     *
+     * @param addIndices - receives the attribute index of each term when
+     * it was added, or -1, to update other copies of the header
+     * @param attIndices - receives the attribute index of each term after
+     * the document, or -1
+     * @param docFreqs - receives the count of each term after the document
+     */
+    public void updateSketch(String[] terms, int[] counts, int numTerms, int docSize,
+            int classIndex, InstancesHeader header, int[] addIndices, int[] attIndices,
+            double[] docFreqs) {
 
         this.numOfDocs++;	//New document, count it.
-        String[] split = s.split(",");	//The message and type are separated by a comma.
-        String message = split[0];
-        String type = split[1];
-        //System.out.println(type);
-        //String message = s;
-        //String type = "H";
-
-
-        message = message.replaceAll("'", "");
-        String[] tokens = message.split(" ");	//Get the individual tokens.
-        double docSize = tokens.length; 		//Number of tokens in the document.
-
-        //The tokens and frequency in this specific document.
-        Map<String, Integer> tokensInDoc = new HashMap<String, Integer>();
-
-        for (String token : tokens) {
-            //For each token in the document
-            if (!token.equals(" ") && !token.equals("")) {
-                Integer freq = tokensInDoc.get(token.toLowerCase()); //Compute freq for each token
-                tokensInDoc.put(token.toLowerCase(), (freq == null) ? 1 : freq + 1);
-            }
-        }
-
-        for (Map.Entry<String, Integer> e : tokensInDoc.entrySet()) { //For each token in the document
-            //	System.out.println(e.getKey()+" "+e.getValue());
-            int oldAttIndex = frequentItemMiner.getAttIndex(e.getKey());
-            frequentItemMiner.addToken(e.getKey(), e.getValue(), type.equals("S") ? 1 : 0);
-
-            int newAttIndex = frequentItemMiner.getAttIndex(e.getKey());
-            if (oldAttIndex == -1) {
-                // Add a new attribute since it was not there
-                if (newAttIndex + 1 > header.numAttributes() - 1) {
-                    // Add a new attribute
-                    //System.out.println("Add "+e.getKey()+" "+e.getValue());
-                    Attribute newAtt = new Attribute(e.getKey());
-                    header.insertAttributeAt(newAtt, newAttIndex + 1);
-
-                } else {
-                    // Change the name of the attribute
-                    //System.out.println((newAttIndex +1 )+ "> "+(header.numAttributes() -1)+ "Change "+e.getKey()+" "+e.getValue());
-                    header.renameAttribute(newAttIndex + 1, e.getKey());
-                }
-            }
+        for (int t = 0; t < numTerms; t++) { //For each token in the document
+            addIndices[t] = frequentItemMiner.addToken(terms[t], counts[t], Math.max(classIndex, 0));
         }
+        updateHeader(header, terms, addIndices, numTerms);
 
         frequentItemMiner.addDoc(docSize);
-        // Create an sparse instance
-        int numTokens = (int) tokensInDoc.size();
-        double[] attValues = new double[numTokens];
-        int[] indices = new int[numTokens];
-
-        int tokenCounter = 0;
-        for (Map.Entry<String, Integer> e : tokensInDoc.entrySet()) { //For each token in the document
-            String token = e.getKey();
-            double numInDoc = e.getValue(); 				//Number of occurrences of a token in the specific document.
-            double docFreq = frequentItemMiner.getCount(token);		//Number of documents that the token appears in.
+        for (int t = 0; t < numTerms; t++) {
+            // A term may have been evicted by a later one of the document
+            attIndices[t] = LookupSketch.Default.lookup(frequentItemMiner, terms[t], docFreqs, t);
+        }
+    }
+
+    /**
+     * Add or rename the attributes of the terms of a document, as they
+     * were added to the sketch by updateSketch.
+     */
+    public static void updateHeader(InstancesHeader header, String[] terms, int[] addIndices,
+            int numTerms) {
+        for (int t = 0; t < numTerms; t++) {
+            int attIndex = addIndices[t];
+            if (attIndex == -1) {
+                // Counted, but not frequent enough to be an attribute
+                continue;
+            }
+            String token = terms[t];
+            if (attIndex + 1 > header.numAttributes() - 1) {
+                // Add a new attribute
+                header.insertAttributeAt(new Attribute(token), attIndex + 1);
+            } else if (!header.attribute(attIndex + 1).name().equals(token)) {
+                // Change the name of the attribute, since the token was not there
+                header.renameAttribute(attIndex + 1, token);
+            }
+        }
+    }
+
+    /**
+     * Create the sparse instance of a document, with its indices in
+     * increasing order, from the results of updateSketch.
+     *
+     * @param numOfDocs - number of documents including this one
+     */
+    public static Instance vectorize(int[] counts, int numTerms, int docSize, int[] attIndices,
+            double[] docFreqs, double numOfDocs, int classIndex, InstancesHeader header,
+            int numAttributes) {
+        int numValues = 0;
+        for (int t = 0; t < numTerms; t++) {
+            if (attIndices[t] != -1) {
+                numValues++;
+            }
+        }
+        double[] attValues = new double[numValues];
+        int[] indices = new int[numValues];
+        numValues = 0;
+        for (int t = 0; t < numTerms; t++) { //For each token in the document
+            int attIndex = attIndices[t] + 1;
+            if (attIndex == 0) {
+                continue;
+            }
+            double numInDoc = counts[t]; 			//Number of occurrences of a token in the specific document.
+            double docFreq = docFreqs[t];		//Number of documents that the token appears in.
             double tf = numInDoc / docSize; 							//Term frequency.
-            double idf = Math.log10(this.numOfDocs / (docFreq + 1)); 	//Inverse document frequency.
-            int attIndex = frequentItemMiner.getAttIndex(token) + 1;
-            indices[tokenCounter] = attIndex;
-            attValues[tokenCounter] = (tf * idf);								//tf*idf
-            tokenCounter++;
-            //System.out.println((tokenCounter-1)+ "tf =" + tf+" idf =" +idf+ "Add "+ attIndex+ " "+e.getKey()+" "+e.getValue());
+            double idf = Math.log10(numOfDocs / (docFreq + 1)); 	//Inverse document frequency.
+            int i = numValues++;
+            while (i > 0 && indices[i - 1] > attIndex) {
+                indices[i] = indices[i - 1];
+                attValues[i] = attValues[i - 1];
+                i--;
+            }
+            indices[i] = attIndex;
+            attValues[i] = (tf * idf);								//tf*idf
         }
 
-        Instance inst = new SparseInstance(1.0, attValues, indices, header.numAttributes());
+        Instance inst = new SparseInstance(1.0, attValues, indices, numAttributes);
         inst.setDataset(header);
-        //System.out.println("B"+type);
-        if (type.equals("S") || type.equals("H")) {
-            //System.out.println(type.equals("S") ? "S" : "H");
-            inst.setClassValue(type.equals("S") ? "S" : "H");
+        if (classIndex != -1) {
+            inst.setClassValue(classIndex);
         } else {
             inst.setClassMissing();
         }
         return inst;
+    }
+
+    public double getNumOfDocs() {
+        return this.numOfDocs;
+    }
+
+    public void setNumOfDocs(double numOfDocs) {
+        this.numOfDocs = numOfDocs;
+    }
 
+    public Sketch getSketch() {
+        return this.frequentItemMiner;
     }
 
     public void printSketch() {
@@ -142,4 +229,189 @@ public class FilterTfIdf {
         return frequentItemMiner.getFreqWord(word);
     }
 
+    /**
+     * Counts of the terms of a document, in an open addressing table with
+     * linear probing. Terms are lowercased in place and hashed as by
+     * String.hashCode. Clearing only empties the slots in use.
+     */
+    protected static class TermCounts {
+
+        /** Size of the cache of term Strings, a power of two */
+        protected static final int CACHE_SIZE = 1 << 14;
+
+        protected String[] keys = new String[64];
+
+        protected int[] hashes = new int[64];
+
+        protected int[] counts = new int[64];
+
+        /** Slot of each term, in order of first occurrence */
+        protected int[] slots = new int[32];
+
+        protected int size = 0;
+
+        /** Last String made for the terms of each hash */
+        protected String[] cache = new String[CACHE_SIZE];
+
+        /** The message without apostrophes, and its terms lowercased in place */
+        protected char[] chars = new char[256];
+
+        protected char[] lowerCase = new char[64];
+
+        /**
+         * Count the terms of a message, separated by spaces, without the
+         * apostrophes.
+         *
+         * @return the size of the document, which is the length of
+         * message.split(" "): empty tokens count but the trailing ones,
+         * and an empty message has size 1
+         */
+        public int tokenize(String text) {
+            int textLength = text.length();
+            if (this.chars.length < textLength) {
+                this.chars = new char[Math.max(textLength, 2 * this.chars.length)];
+            }
+            char[] message = this.chars;
+            int length = 0;
+            for (int i = 0; i < textLength; i++) {
+                char c = text.charAt(i);
+                if (c != '\'') {
+                    message[length++] = c;
+                }
+            }
+
+            clear();
+            int numTokens = 0;
+            int docSize = (length == 0) ? 1 : 0;
+            int tokenStart = 0;
+            for (int i = 0; i <= length; i++) {
+                if (i == length || message[i] == ' ') {
+                    numTokens++;
+                    if (i > tokenStart) {
+                        docSize = numTokens;
+                        add(message, tokenStart, i);
+                    }
+                    tokenStart = i + 1;
+                }
+            }
+            return docSize;
+        }
+
+        public void clear() {
+            for (int i = 0; i < this.size; i++) {
+                this.keys[this.slots[i]] = null;
+            }
+            this.size = 0;
+        }
+
+        public int size() {
+            return this.size;
+        }
+
+        public String getTerm(int i) {
+            return this.keys[this.slots[i]];
+        }
+
+        public int getCount(int i) {
+            return this.counts[this.slots[i]];
+        }
+
+        protected static int mix(int h) {
+            h *= 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        protected static boolean equals(String key, char[] s, int from, int to) {
+            if (key.length() != to - from) {
+                return false;
+            }
+            for (int i = from; i < to; i++) {
+                if (key.charAt(i - from) != s[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Lowercase s[from, to) and count it.
+         */
+        public void add(char[] s, int from, int to) {
+            int h = 0;
+            for (int i = from; i < to; i++) {
+                char c = s[i];
+                if (c >= 128) {
+                    // As String.toLowerCase, which may change the length
+                    String term = new String(s, from, to - from).toLowerCase();
+                    if (this.lowerCase.length < term.length()) {
+                        this.lowerCase = new char[2 * term.length()];
+                    }
+                    term.getChars(0, term.length(), this.lowerCase, 0);
+                    add(this.lowerCase, 0, term.length(), term.hashCode());
+                    return;
+                }
+                if (c >= 'A' && c <= 'Z') {
+                    c += 'a' - 'A';
+                    s[i] = c;
+                }
+                h = 31 * h + c;
+            }
+            add(s, from, to, h);
+        }
+
+        protected void add(char[] s, int from, int to, int h) {
+            int mask = this.keys.length - 1;
+            int slot = mix(h) & mask;
+            String key;
+            while ((key = this.keys[slot]) != null) {
+                if (this.hashes[slot] == h && equals(key, s, from, to)) {
+                    this.counts[slot]++;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            this.keys[slot] = getString(s, from, to, h);
+            this.hashes[slot] = h;
+            this.counts[slot] = 1;
+            if (this.size == this.slots.length) {
+                this.slots = Arrays.copyOf(this.slots, 2 * this.size);
+            }
+            this.slots[this.size++] = slot;
+            if (2 * this.size > this.keys.length) {
+                grow();
+            }
+        }
+
+        protected String getString(char[] s, int from, int to, int h) {
+            int i = mix(h) & (CACHE_SIZE - 1);
+            String term = this.cache[i];
+            if (term == null || term.hashCode() != h || !equals(term, s, from, to)) {
+                term = new String(s, from, to - from);
+                this.cache[i] = term;
+            }
+            return term;
+        }
+
+        protected void grow() {
+            String[] oldKeys = this.keys;
+            int[] oldHashes = this.hashes;
+            int[] oldCounts = this.counts;
+            int capacity = 2 * oldKeys.length;
+            this.keys = new String[capacity];
+            this.hashes = new int[capacity];
+            this.counts = new int[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < this.size; i++) {
+                int oldSlot = this.slots[i];
+                int slot = mix(oldHashes[oldSlot]) & mask;
+                while (this.keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                this.keys[slot] = oldKeys[oldSlot];
+                this.hashes[slot] = oldHashes[oldSlot];
+                this.counts[slot] = oldCounts[oldSlot];
+                this.slots[i] = slot;
+            }
+        }
+    }
 }
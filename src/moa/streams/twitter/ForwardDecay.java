@@ -0,0 +1,133 @@
+/*
+ *    ForwardDecay.java
+ *    Copyright (C) 2011 University of Waikato, Hamilton, New Zealand
+ *    @author Albert Bifet (abifet at cs dot waikato dot ac dot nz)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package moa.streams.twitter;
+
+import java.io.Serializable;
+
+/**
+ * Exponential decay engine for counting sketches, with a per-document
+ * decay factor <code>base</code> (for example 1-lambda or exp(-lambda)).
+ *
+ * It supports the two usual ways of decaying counters without calling
+ * Math.pow or Math.exp on the hot path:
+ *
+ * - backward decay: a counter last updated <code>gap</code> documents ago
+ *   is multiplied by decay(gap), read from a precomputed table for small
+ *   gaps and composed from table entries for large ones.
+ *
+ * - forward decay (Cormode et al.): counters store increments multiplied by
+ *   weight(), which grows by 1/base every document, and are divided by
+ *   weight() when read. When the weight gets too large a new landmark is
+ *   set and every stored counter has to be scaled by the value returned by
+ *   renormalize(), so counters stay finite on arbitrarily long streams.
+ *
+ */
+public class ForwardDecay implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int DEFAULT_TABLE_SIZE = 4096;
+
+    /** Weight above which the landmark has to be moved */
+    public static final double MAX_WEIGHT = 1e100;
+
+    protected double base;
+
+    /** table[i] = base^i */
+    protected double[] table;
+
+    /** base^table.length, used to compose decays of large gaps */
+    protected double step;
+
+    protected double growth;
+
+    protected double weight = 1.0;
+
+    public ForwardDecay(double base) {
+        this(base, DEFAULT_TABLE_SIZE);
+    }
+
+    public ForwardDecay(double base, int tableSize) {
+        this.base = base;
+        this.table = new double[tableSize];
+        double d = 1.0;
+        for (int i = 0; i < tableSize; i++) {
+            this.table[i] = d;
+            d *= base;
+        }
+        this.step = d;
+        this.growth = 1.0 / base;
+    }
+
+    public double getBase() {
+        return this.base;
+    }
+
+    /**
+     * Decay factor for a counter not updated during the last gap documents.
+     *
+     * @param gap number of documents, non negative
+     * @return base^gap
+     */
+    public double decay(int gap) {
+        if (gap < this.table.length) {
+            return this.table[gap];
+        }
+        double factor = this.table[gap % this.table.length];
+        double s = this.step;
+        int q = gap / this.table.length;
+        while (q > 0 && factor > 0.0) {
+            if ((q & 1) != 0) {
+                factor *= s;
+            }
+            s *= s;
+            q >>= 1;
+        }
+        return factor;
+    }
+
+    /**
+     * Current forward decay weight, base^-(numDoc - landmark).
+     */
+    public double weight() {
+        return this.weight;
+    }
+
+    /**
+     * Move to the next document.
+     *
+     * @return true if stored counters have to be renormalized
+     */
+    public boolean advance() {
+        this.weight *= this.growth;
+        return this.weight > MAX_WEIGHT;
+    }
+
+    /**
+     * Set the landmark to the current document.
+     *
+     * @return factor by which every stored counter has to be multiplied
+     */
+    public double renormalize() {
+        double scale = 1.0 / this.weight;
+        this.weight = 1.0;
+        return scale;
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ *    HeavyKeeper.java
+ *    Copyright (C) 2011 University of Waikato, Hamilton, New Zealand
+ *    @author Albert Bifet (abifet at cs dot waikato dot ac dot nz)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package moa.streams.twitter;
+
+import moa.options.FloatOption;
+import moa.options.IntOption;
+import moa.options.AbstractOptionHandler;
+import moa.core.ObjectRepository;
+import moa.tasks.TaskMonitor;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Implementation of HeavyKeeper (Gong et al.) for finding the top-k
+ * String tokens.
+ *
+ * Every row of the sketch maps a token to a bucket holding a fingerprint
+ * and a count. A token matching the fingerprint increments the count;
+ * otherwise the count is decremented with probability b^-count, and the
+ * token takes over the bucket when it reaches zero. Large counts are thus
+ * almost never decayed by the low-frequency tokens, which keep decaying
+ * each other. The capacity tokens with the largest estimations are kept
+ * in a min-heap; a token keeps its attribute index as long as it stays in
+ * the heap, and a token entering the heap takes the attribute index of
+ * the token it replaces.
+ *
+ */
+public class HeavyKeeper extends AbstractOptionHandler implements LookupSketch {
+
+    private static final long serialVersionUID = 1L;
+
+    public IntOption capacityOption = new IntOption("capacity", 'c', "Number of attributes to use", 10000);
+
+    public IntOption widthOption = new IntOption("width", 'w',
+            "Number of buckets in each row of the sketch.", 1 << 15, 1, Integer.MAX_VALUE);
+
+    public IntOption depthOption = new IntOption("depth", 'd',
+            "Number of rows of the sketch.", 2, 1, 32);
+
+    public FloatOption decayBaseOption = new FloatOption("decayBase", 'b',
+            "Base b of the decay probability b^-count.", 1.08, 1.0, Double.MAX_VALUE);
+
+    public IntOption randomSeedOption = new IntOption("randomSeed", 'r',
+            "Seed for the hash functions and the decays.", 1);
+
+    protected int width;
+
+    protected int depth;
+
+    /** Fingerprints of the buckets, row after row */
+    protected int[] fingerprints;
+
+    /** Counts of the buckets, row after row */
+    protected int[] counts;
+
+    protected int[] seeds;
+
+    protected ForwardDecay decay;
+
+    protected Random random;
+
+    // Top-k: attribute index of each token and a min-heap of attribute
+    // indices ordered by count
+
+    protected Map<String, Integer> _map = null;
+
+    protected int _top = 0;
+
+    protected String[] tokens;
+
+    protected long[] topCounts;
+
+    protected int[] heap;
+
+    protected int[] heapPos;
+
+    protected int numDoc = 0;
+
+    protected double numTerms = 0;
+
+    /**
+     * Initialise the sketch and the top-k heap
+     *
+     */
+    @Override
+    protected void prepareForUseImpl(TaskMonitor arg0, ObjectRepository arg1) {
+        this.width = this.widthOption.getValue();
+        this.depth = this.depthOption.getValue();
+        this.fingerprints = new int[this.width * this.depth];
+        this.counts = new int[this.width * this.depth];
+        this.random = new Random(this.randomSeedOption.getValue());
+        this.seeds = new int[this.depth + 1];
+        for (int i = 0; i < this.seeds.length; i++) {
+            this.seeds[i] = this.random.nextInt() | 1;
+        }
+        this.decay = new ForwardDecay(1.0 / this.decayBaseOption.getValue());
+        int capacity = this.capacityOption.getValue();
+        _map = new HashMap<String, Integer>();
+        _top = 0;
+        this.tokens = new String[capacity];
+        this.topCounts = new long[capacity];
+        this.heap = new int[capacity];
+        this.heapPos = new int[capacity];
+    }
+
+    /**
+     * Hash of the characters of a token, a polynomial in the seed. Rows
+     * and fingerprints have different seeds, so tokens colliding in one
+     * row, as "Aa" and "BB" do with String.hashCode, seldom collide in the
+     * others or share a fingerprint.
+     */
+    protected static int hash(String token, int seed) {
+        int x = seed;
+        for (int i = 0; i < token.length(); i++) {
+            x = x * seed + token.charAt(i);
+        }
+        x ^= x >>> 16;
+        x *= 0x85EBCA6B;
+        x ^= x >>> 13;
+        x *= 0xC2B2AE35;
+        x ^= x >>> 16;
+        return x;
+    }
+
+    /** Fingerprint of a token, never 0 which marks an empty bucket */
+    protected int fingerprint(String token) {
+        int fp = hash(token, this.seeds[this.depth]);
+        return fp != 0 ? fp : 1;
+    }
+
+    protected int bucket(String token, int row) {
+        return row * this.width + (int) ((hash(token, this.seeds[row]) & 0xFFFFFFFFL) % this.width);
+    }
+
+    /**
+     * Add freq occurrences of a token to the sketch.
+     *
+     * @return estimated count of the token
+     */
+    protected long update(String token, int freq) {
+        int fp = fingerprint(token);
+        long estimate = 0;
+        for (int row = 0; row < this.depth; row++) {
+            int b = bucket(token, row);
+            for (int i = 0; i < freq; i++) {
+                if (this.counts[b] == 0) {
+                    this.fingerprints[b] = fp;
+                    this.counts[b] = 1;
+                } else if (this.fingerprints[b] == fp) {
+                    this.counts[b]++;
+                } else if (this.random.nextDouble() < this.decay.decay(this.counts[b])) {
+                    this.counts[b]--;
+                    if (this.counts[b] == 0) {
+                        this.fingerprints[b] = fp;
+                        this.counts[b] = 1;
+                    }
+                }
+            }
+            if (this.fingerprints[b] == fp) {
+                estimate = Math.max(estimate, this.counts[b]);
+            }
+        }
+        return estimate;
+    }
+
+    protected long query(String token) {
+        int fp = fingerprint(token);
+        long estimate = 0;
+        for (int row = 0; row < this.depth; row++) {
+            int b = bucket(token, row);
+            if (this.fingerprints[b] == fp) {
+                estimate = Math.max(estimate, this.counts[b]);
+            }
+        }
+        return estimate;
+    }
+
+    public int addToken(String token, int freq, int classIndex) {
+        return addToken(token, freq);
+    }
+
+    /**
+     * Add a token to be counted.
+     *
+     * @param token
+     * @param freq
+     * @return attributeIndex which is useful for constructing Instance
+     * objects, or -1 if the token is not in the top-k
+     */
+    public int addToken(String token, int freq) {
+        long estimate = update(token, freq);
+        Integer index = _map.get(token);
+        int attIndex;
+        if (index != null) {
+            attIndex = index;
+            if (estimate > this.topCounts[attIndex]) {
+                this.topCounts[attIndex] = estimate;
+                siftDown(this.heapPos[attIndex]);
+            }
+        } else if (estimate == 0) {
+            attIndex = -1;
+        } else if (_top < this.tokens.length) {
+            attIndex = _top;
+            _top++;
+            this.tokens[attIndex] = token;
+            this.topCounts[attIndex] = estimate;
+            this.heap[attIndex] = attIndex;
+            this.heapPos[attIndex] = attIndex;
+            _map.put(token, attIndex);
+            siftUp(attIndex);
+        } else if (estimate > this.topCounts[this.heap[0]]) {
+            // Replace the token with the smallest count
+            attIndex = this.heap[0];
+            _map.remove(this.tokens[attIndex]);
+            _map.put(token, attIndex);
+            this.tokens[attIndex] = token;
+            this.topCounts[attIndex] = estimate;
+            siftDown(0);
+        } else {
+            attIndex = -1;
+        }
+        return attIndex;
+    }
+
+    protected void siftUp(int pos) {
+        int index = this.heap[pos];
+        long count = this.topCounts[index];
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            int p = this.heap[parent];
+            if (this.topCounts[p] <= count) {
+                break;
+            }
+            this.heap[pos] = p;
+            this.heapPos[p] = pos;
+            pos = parent;
+        }
+        this.heap[pos] = index;
+        this.heapPos[index] = pos;
+    }
+
+    protected void siftDown(int pos) {
+        int index = this.heap[pos];
+        long count = this.topCounts[index];
+        int half = _top >>> 1;
+        while (pos < half) {
+            int child = 2 * pos + 1;
+            int c = this.heap[child];
+            int right = child + 1;
+            if (right < _top && this.topCounts[this.heap[right]] < this.topCounts[c]) {
+                child = right;
+                c = this.heap[child];
+            }
+            if (count <= this.topCounts[c]) {
+                break;
+            }
+            this.heap[pos] = c;
+            this.heapPos[c] = pos;
+            pos = child;
+        }
+        this.heap[pos] = index;
+        this.heapPos[index] = pos;
+    }
+
+    /**
+     * Retrieve the estimated count for any token
+     *
+     * @param token
+     * @return count, the one in the top-k if the token is there
+     */
+    public double getCount(String token) {
+        Integer index = _map.get(token);
+        if (index != null) {
+            return this.topCounts[index];
+        }
+        return query(token);
+    }
+
+    /**
+     * Get the attribute index of the token specified.
+     *
+     * @param token
+     * @return attribute index, or -1 if the token is not in the top-k
+     */
+    public int getAttIndex(String token) {
+        Integer index = _map.get(token);
+        return index != null ? index : -1;
+    }
+
+    public int lookup(String token, double[] counts, int i) {
+        Integer index = _map.get(token);
+        if (index == null) {
+            counts[i] = 0.0;
+            return -1;
+        }
+        counts[i] = this.topCounts[index];
+        return index;
+    }
+
+    /**
+     * Print the top-k to System.out, in heap order, useful for debugging
+     *
+     */
+    public void showNodes() {
+        for (int pos = 0; pos < _top; pos++) {
+            int index = this.heap[pos];
+            System.out.println("" + index + "," + this.topCounts[index] + "," + this.tokens[index]);
+        }
+    }
+
+    public void addDoc(double docSize) {
+        this.numDoc++;
+        this.numTerms += docSize;
+    }
+
+    public void remove(String token) {
+    }
+
+    public double getFreqWord(String word) {
+        return getCount(word) / this.numTerms;
+    }
+
+    @Override
+    public void getDescription(StringBuilder arg0, int arg1) {
+    }
+}
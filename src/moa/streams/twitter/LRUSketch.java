@@ -28,11 +28,16 @@ import moa.options.AbstractOptionHandler;
 import moa.core.ObjectRepository;
 import moa.tasks.TaskMonitor;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -43,8 +48,13 @@ import java.util.Map;
  * 
  * Modified for TfIdf
  *
+ * Merging two sketches with the same lambda adds their decayed counts at
+ * the latest document of both, so the error of a merged count is the sum
+ * of its errors in the two sketches. Only the capacity largest counts are
+ * kept, the others are dropped as an eviction would.
+ *
  */
-public class LRUSketch extends AbstractOptionHandler implements Sketch {
+public class LRUSketch extends AbstractOptionHandler implements MergeableSketch, LookupSketch {
 
 	private static final long serialVersionUID = 1L;
 	
@@ -59,9 +69,13 @@ public class LRUSketch extends AbstractOptionHandler implements Sketch {
 	protected int _top = 0;
 	protected Map<String,Node> _map = null;
 	
-	//protected Node[] _nodes = null;
-	protected LinkedList<Node> _nodes = null; //***
+	//Intrusive doubly linked list of nodes, from least to most recently used
+	protected Node _head = null;
+	protected Node _tail = null;
+	//Attribute indices of the nodes dropped, given again before new ones
+	protected List<Integer> freeAttIndices = null;
 	protected double lambda; //***
+	protected ForwardDecay decay; //Table of (1-lambda)^gap
 	protected double boundFrequency; //***
 	
 	protected int numDoc = 0;
@@ -74,10 +88,12 @@ public class LRUSketch extends AbstractOptionHandler implements Sketch {
 	protected void prepareForUseImpl(TaskMonitor arg0, ObjectRepository arg1) {
 		_top = 0;
 		_map = new HashMap<String,Node>();
-		//_nodes = new_nodes = new ArrayList<Node>();
-		_nodes = new LinkedList<Node>(); //***
+		_head = null;
+		_tail = null;
+		this.freeAttIndices = new ArrayList<Integer>();
 		this.numDoc = 0;
 		this.lambda = lambdaOption.getValue();
+		this.decay = new ForwardDecay(1.0 - this.lambda);
 		//this.lambda = epsilonOption.getValue()*epsilonOption.getValue()/(capacityOption.getValue() * 2 * Math.log(1/deltaOption.getValue()));
 		this.boundFrequency = (1+epsilonOption.getValue())/capacityOption.getValue();
 	}		
@@ -97,7 +113,7 @@ public class LRUSketch extends AbstractOptionHandler implements Sketch {
 		if (node == null) {
 			return 0.0;
 		} else {
-			return node.getCount(this.numDoc, this.lambda);
+			return node.getCount(this.numDoc, this.decay);
 		}
 	}
 		
@@ -115,6 +131,16 @@ public class LRUSketch extends AbstractOptionHandler implements Sketch {
 		else
 			return -1;
 	}
+
+	public int lookup(String token, double[] counts, int i) {
+		Node node = _map.get(token);
+		if (node == null) {
+			counts[i] = 0.0;
+			return -1;
+		}
+		counts[i] = node.getCount(this.numDoc, this.decay);
+		return node.attrIndex;
+	}
 	
 	/**
 	 * Add a token to be counted.
@@ -132,9 +158,9 @@ public class LRUSketch extends AbstractOptionHandler implements Sketch {
 				newToken(token,freq);
 			}	
 		} else {
-			//Move to the head
-			_nodes.remove(node); //Remove() ***	
-			_nodes.add(node); //  Add to the tail ***
+			//Move to the tail
+			unlink(node);
+			linkLast(node);
 			addCount(node,freq); 
 			updatePosition(node,freq);
 		}
@@ -150,17 +176,15 @@ public class LRUSketch extends AbstractOptionHandler implements Sketch {
 	 */
 
 	public void showNodes() {
-		for (Node node: _nodes) {
-			if (node != null) {
-				System.out.println("Count: "+getCount(node.getToken())+" "+node);
-			}
+		for (Node node = _head; node != null; node = node.next) {
+			System.out.println("Count: "+getCount(node.getToken())+" "+node);
 		}
 	}
 
 
 	protected void fill(String token, int freq) {
-			Node node = newNode(token,_top, freq);
-			_nodes.add(node); //  Add to the tail 
+			Node node = newNode(token, nextAttIndex(), freq);
+			linkLast(node); //  Add to the tail
 			_map.put(token, node);
 			updatePosition(node,freq);
 			_top++;
@@ -169,13 +193,15 @@ public class LRUSketch extends AbstractOptionHandler implements Sketch {
 
 	protected void newToken(String token, int freq) {
 		Node node;
-		//if (_nodes.size()>0) {
-			node = _nodes.remove(); //Obtain head : remove() ***
-		//}
-		if (node.getCount(this.numDoc, this.lambda)< this.boundFrequency) {
-				node = _nodes.remove(); //Remove() ***
+		node = _head; //Obtain head
+		unlink(node);
+		if (node.getCount(this.numDoc, this.decay)< this.boundFrequency && _head != null) {
+				//Drop the infrequent head, and recycle the next one
+				drop(node);
+				node = _head;
+				unlink(node);
 		}
-		_nodes.add(node); //  Add to the tail ***
+		linkLast(node); //  Add to the tail
 		_map.remove( node.token);
 		_map.put(token,node);
 		node.token = token;
@@ -185,13 +211,69 @@ public class LRUSketch extends AbstractOptionHandler implements Sketch {
 	}
 
 
+	/**
+	 * Attribute index for a new node: a freed one, or the next one never
+	 * given.
+	 */
+	protected int nextAttIndex() {
+		if (!this.freeAttIndices.isEmpty()) {
+			return this.freeAttIndices.remove(this.freeAttIndices.size() - 1);
+		}
+		return _top + this.freeAttIndices.size();
+	}
+
+	/**
+	 * Forget a node already out of the list, freeing its attribute index.
+	 */
+	protected void drop(Node node) {
+		_map.remove(node.token);
+		this.freeAttIndices.add(node.attrIndex);
+		_top--;
+	}
+
+	/**
+	 * Append a node at the tail of the list, in constant time.
+	 */
+	protected void linkLast(Node node) {
+		node.prev = _tail;
+		node.next = null;
+		if (_tail != null) {
+			_tail.next = node;
+		} else {
+			_head = node;
+		}
+		_tail = node;
+	}
+
+	/**
+	 * Take a node out of the list, in constant time. Nodes that are not
+	 * linked are left untouched.
+	 */
+	protected void unlink(Node node) {
+		if (node.prev == null && _head != node) {
+			return;
+		}
+		if (node.prev != null) {
+			node.prev.next = node.next;
+		} else {
+			_head = node.next;
+		}
+		if (node.next != null) {
+			node.next.prev = node.prev;
+		} else {
+			_tail = node.prev;
+		}
+		node.prev = null;
+		node.next = null;
+	}
+
 	protected void updatePosition(Node node, int freq) {
 		//System.out.println("Updating "+freq+" : "+node);
 	}
 
 	
     protected boolean addCount(Node node, int freq) { //***
-   		node.addCount(freq, this.lambda, this.numDoc) ;
+   		node.addCount(freq, this.lambda, this.decay, this.numDoc) ;
 		return false;
 	}
 	
@@ -209,13 +291,137 @@ public class LRUSketch extends AbstractOptionHandler implements Sketch {
 		return new Node(token,index,freq, this.numDoc);
 	}
 
+	public void merge(Sketch other) {
+		if (other == null || other.getClass() != getClass()) {
+			throw new IllegalArgumentException("Cannot merge " + getClass().getName()
+					+ " with " + (other == null ? null : other.getClass().getName()));
+		}
+		LRUSketch o = (LRUSketch) other;
+		if (o.lambda != this.lambda) {
+			throw new IllegalArgumentException("Cannot merge sketches with lambda "
+					+ this.lambda + " and " + o.lambda);
+		}
+		// Both sketches are read at the latest document
+		int doc = Math.max(this.numDoc, o.numDoc);
+		Map<String,Double> merged = new HashMap<String,Double>();
+		for (Node node = _head; node != null; node = node.next) {
+			merged.put(node.token, node.getCount(doc, this.decay));
+		}
+		for (Node node = o._head; node != null; node = node.next) {
+			Double count = merged.get(node.token);
+			merged.put(node.token, (count == null ? 0.0 : count) + node.getCount(doc, o.decay));
+		}
+		this.numDoc = doc;
+		this.numTerms += o.numTerms;
+		keep(merged);
+	}
+
+	/**
+	 * Replace the counters by the capacity largest of the given counts at
+	 * the current document, recycling the nodes of the tokens that are not
+	 * kept. The list is rebuilt from the smallest to the largest count, so
+	 * the smallest counts are evicted first.
+	 */
+	protected void keep(final Map<String,Double> counts) {
+		List<String> tokens = new ArrayList<String>(counts.keySet());
+		Collections.sort(tokens, new Comparator<String>() {
+			public int compare(String a, String b) {
+				return Double.compare(counts.get(b), counts.get(a));
+			}
+		});
+		if (tokens.size() > this.capacityOption.getValue()) {
+			tokens = tokens.subList(0, this.capacityOption.getValue());
+		}
+		Map<String,Node> kept = new HashMap<String,Node>();
+		for (String token : tokens) {
+			kept.put(token, _map.get(token));
+		}
+		ArrayList<Node> free = new ArrayList<Node>();
+		for (Node node = _head; node != null; node = node.next) {
+			if (!kept.containsKey(node.token)) {
+				free.add(node);
+			}
+		}
+		_map.clear();
+		_head = null;
+		_tail = null;
+		for (int i = tokens.size() - 1; i >= 0; i--) {
+			String token = tokens.get(i);
+			Node node = kept.get(token);
+			if (node == null) {
+				if (!free.isEmpty()) {
+					node = free.remove(free.size() - 1);
+					node.token = token;
+				} else {
+					node = newNode(token, nextAttIndex(), 0);
+					_top++;
+				}
+			}
+			node.initCount(counts.get(token), this.numDoc);
+			_map.put(token, node);
+			node.prev = null;
+			node.next = null;
+			linkLast(node);
+		}
+		//Nodes not recycled give back their attribute indices
+		for (Node node : free) {
+			this.freeAttIndices.add(node.attrIndex);
+			_top--;
+		}
+	}
+
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(this.capacityOption.getValue());
+		out.writeDouble(this.lambdaOption.getValue());
+		out.writeInt(this.numDoc);
+		out.writeDouble(this.numTerms);
+		int size = 0;
+		for (Node node = _head; node != null; node = node.next) {
+			size++;
+		}
+		out.writeInt(size);
+		for (Node node = _head; node != null; node = node.next) {
+			out.writeUTF(node.token);
+			out.writeInt(node.attrIndex);
+			out.writeDouble(node.getCount(this.numDoc, this.decay));
+		}
+	}
+
+	public void read(DataInput in) throws IOException {
+		this.capacityOption.setValue(in.readInt());
+		this.lambdaOption.setValue(in.readDouble());
+		prepareForUseImpl(null, null);
+		this.numDoc = in.readInt();
+		this.numTerms = in.readDouble();
+		int size = in.readInt();
+		int numAttIndices = 0;
+		for (int i = 0; i < size; i++) {
+			String token = in.readUTF();
+			Node node = newNode(token, i, 0);
+			node.attrIndex = in.readInt();
+			node.initCount(in.readDouble(), this.numDoc);
+			_map.put(token, node);
+			linkLast(node);
+			numAttIndices = Math.max(numAttIndices, node.attrIndex + 1);
+		}
+		_top = size;
+		//The indices below the largest one that no node has were freed
+		boolean[] isUsed = new boolean[numAttIndices];
+		for (Node node = _head; node != null; node = node.next) {
+			isUsed[node.attrIndex] = true;
+		}
+		for (int i = numAttIndices - 1; i >= 0; i--) {
+			if (!isUsed[i]) {
+				this.freeAttIndices.add(i);
+			}
+		}
+	}
+
 	public void remove(String token){
 		Node node = _map.get(token);
 		if (node != null) {
-			_nodes.remove(node);
-			node = null;
-			_map.remove(token);
-			_top--;
+			unlink(node);
+			drop(node);
 		}
 	}
 
@@ -228,6 +434,8 @@ public class LRUSketch extends AbstractOptionHandler implements Sketch {
 		double count;
 	    int lastDoc; //***
 		String token;
+		Node prev;
+		Node next;
 
 		Node(String token, int index, int freq, int numDoc) {
 			this.index = index;
@@ -237,14 +445,13 @@ public class LRUSketch extends AbstractOptionHandler implements Sketch {
 			//lastDoc = numDoc; //***
 		}
 		
-    protected boolean addCount(double freq, double lambda, int doc) {
+    protected boolean addCount(double freq, double lambda, ForwardDecay decay, int doc) {
 		// We don't use doc, only on SpaceSavingAdwin
 		//this.count+= freq;
 		// Suppose freq = 1;
-		//Speed up computing pow with a table?
 		//System.out.println("Doc:"+doc+" "+this.lastDoc+" "+"exp: "+Math.pow(1.0-lambda, doc-this.lastDoc-1));
 		double c = this.count;
-		this.count= this.count * Math.pow(1.0-lambda, doc-this.lastDoc)+ freq*lambda; //***
+		this.count= this.count * decay.decay(doc-this.lastDoc)+ freq*lambda; //***
 		//if (this.token.equals("word1")) System.out.println(c+" ->"+this.count+" :"+freq*lambda+","+  doc+","+this.lastDoc);
 		this.lastDoc = doc; //***
 		
@@ -253,9 +460,9 @@ public class LRUSketch extends AbstractOptionHandler implements Sketch {
 	
 	
 	
-    protected double getCount(int doc, double lambda) {
+    protected double getCount(int doc, ForwardDecay decay) {
 		//return this.count;
-		return this.count* Math.pow(1-lambda, doc-this.lastDoc); //*** 
+		return this.count* decay.decay(doc-this.lastDoc); //*** 
 	}
 
     protected double getCount() {
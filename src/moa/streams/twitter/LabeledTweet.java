@@ -0,0 +1,111 @@
+/*
+ *    LabeledTweet.java
+ *    Copyright (C) 2011 University of Waikato, Hamilton, New Zealand
+ *    @author Albert Bifet (abifet at cs dot waikato dot ac dot nz)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package moa.streams.twitter;
+
+/**
+ * A cleaned tweet, as handed by the readers to FilterTfIdf: its message,
+ * the label of its emoticons, the language it was accepted for with the
+ * probability given by the detector, and its time.
+ *
+ * Lines of .tweet files are written by toString as "message,label", and
+ * read back by parse, which takes the label after the last comma so the
+ * message may hold commas.
+ *
+ */
+public final class LabeledTweet {
+
+    private final String message;
+
+    private final String label;
+
+    private final String language;
+
+    private final double confidence;
+
+    private final long timestamp;
+
+    /**
+     * @param language the language the tweet was accepted for, or "" if
+     * there was no language filter
+     * @param confidence the probability of the language, or NaN if the
+     * detector was not asked
+     * @param timestamp milliseconds since the epoch at which the tweet was
+     * created, or read when that is not known
+     */
+    public LabeledTweet(String message, String label, String language,
+            double confidence, long timestamp) {
+        if (message == null || label == null || language == null) {
+            throw new NullPointerException();
+        }
+        this.message = message;
+        this.label = label;
+        this.language = language;
+        this.confidence = confidence;
+        this.timestamp = timestamp;
+    }
+
+    public LabeledTweet(String message, String label) {
+        this(message, label, "", Double.NaN, System.currentTimeMillis());
+    }
+
+    /**
+     * Read a line of a .tweet file.
+     *
+     * @return the tweet, or null if the line has no comma
+     */
+    public static LabeledTweet parse(String line) {
+        int comma = line.lastIndexOf(',');
+        if (comma == -1) {
+            return null;
+        }
+        return new LabeledTweet(line.substring(0, comma), line.substring(comma + 1));
+    }
+
+    public String getMessage() {
+        return this.message;
+    }
+
+    /**
+     * Label of the emoticons of the tweet, or N if it had none.
+     */
+    public String getLabel() {
+        return this.label;
+    }
+
+    public String getLanguage() {
+        return this.language;
+    }
+
+    public double getConfidence() {
+        return this.confidence;
+    }
+
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * The line of a .tweet file.
+     */
+    @Override
+    public String toString() {
+        return this.message + "," + this.label;
+    }
+}
@@ -20,15 +20,117 @@
 
 package moa.streams.twitter;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.cybozu.labs.langdetect.Detector;
 import com.cybozu.labs.langdetect.DetectorFactory;
 import com.cybozu.labs.langdetect.LangDetectException;
 import com.cybozu.labs.langdetect.Language;
 
+/**
+ * Language detection of tweets, with a cache of the last results.
+ *
+ * The profiles of DetectorFactory can only be loaded once per JVM, so the
+ * streams share the instance returned by getInstance. Which profiles it
+ * loads can be set with setProfiles before, and loadInBackground loads
+ * them in advance so that the first tweet does not wait. The probabilities
+ * detected for a text are kept in a bounded LRU cache keyed by a 64-bit
+ * hash of the text in lower case with its white space collapsed, since
+ * retweets and spam repeat the same text many times. Counters of cache
+ * hits and misses and of the time spent detecting are kept to monitor it.
+ *
+ */
 public class LanguageDetect {
 
+    public static final String DEFAULT_PROFILE_DIRECTORY = "lib/profiles";
+
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
+    private static LanguageDetect instance;
+
+    private static File profiles = new File(DEFAULT_PROFILE_DIRECTORY);
+
+    private static String[] languages = null;
+
+    protected Map<Long, ArrayList<Language>> cache;
+
+    protected AtomicLong cacheHits = new AtomicLong();
+
+    protected AtomicLong cacheMisses = new AtomicLong();
+
+    protected AtomicLong detectionNanos = new AtomicLong();
+
+    public LanguageDetect() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    public LanguageDetect(final int cacheSize) {
+        this.cache = new LinkedHashMap<Long, ArrayList<Language>>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, ArrayList<Language>> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Shared instance, with its profiles loaded on the first call.
+     */
+    public static synchronized LanguageDetect getInstance() {
+        if (instance == null) {
+            LanguageDetect languageDetect = new LanguageDetect();
+            try {
+                languageDetect.init(profiles, languages);
+            } catch (IOException ex) {
+                throw new RuntimeException("Failed loading language profiles from " + profiles, ex);
+            }
+            instance = languageDetect;
+        }
+        return instance;
+    }
+
+    /**
+     * Set the profiles loaded by getInstance, which has no effect once they
+     * are loaded.
+     *
+     * @param profileFile directory of JSON profiles, or binary file written by LanguageProfiles
+     * @param languageList the languages to load, or null for all of them
+     */
+    public static synchronized void setProfiles(File profileFile, String[] languageList) {
+        if (instance != null) {
+            System.err.println("Language profiles already loaded, ignoring " + profileFile);
+            return;
+        }
+        profiles = profileFile;
+        languages = languageList;
+    }
+
+    /**
+     * Load the profiles of getInstance in a background thread.
+     */
+    public static void loadInBackground() {
+        Thread thread = new Thread(new Runnable() {
+
+            public void run() {
+                try {
+                    getInstance();
+                } catch (RuntimeException ex) {
+                    System.err.println(ex.getMessage() + ": " + ex.getCause());
+                }
+            }
+        }, "language-profiles");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
     /**
      * Initialise the files used to predict the language.
      * @param profileDirectory - Where the profiles are stored.
@@ -38,6 +140,16 @@ public class LanguageDetect {
         DetectorFactory.loadProfile(profileDirectory);
     }
 
+    /**
+     * Initialise some of the profiles of a directory or of a binary file.
+     * @param profileFile - Directory of JSON profiles, or binary file written by LanguageProfiles.
+     * @param languageList - The languages to load, or null for all of them.
+     * @throws IOException
+     */
+    public void init(File profileFile, String[] languageList) throws IOException {
+        LanguageProfiles.load(profileFile, languageList);
+    }
+
     /**
      * Detect the language of the text input.
      * @param text
@@ -57,8 +169,77 @@ public class LanguageDetect {
      * @throws LangDetectException
      */
     public ArrayList<Language> detectLangs(String text) throws LangDetectException {
-        Detector detector = DetectorFactory.create();
-        detector.append(text);
-        return detector.getProbabilities();
+        Long key = hash(text);
+        ArrayList<Language> languages;
+        synchronized (this.cache) {
+            languages = this.cache.get(key);
+        }
+        if (languages != null) {
+            this.cacheHits.incrementAndGet();
+        } else {
+            this.cacheMisses.incrementAndGet();
+            long start = System.nanoTime();
+            Detector detector = DetectorFactory.create();
+            detector.append(text);
+            languages = detector.getProbabilities();
+            this.detectionNanos.addAndGet(System.nanoTime() - start);
+            synchronized (this.cache) {
+                this.cache.put(key, languages);
+            }
+        }
+        return new ArrayList<Language>(languages);
+    }
+
+    /**
+     * FNV-1a hash of the text in lower case, without leading and trailing
+     * white space and with the other runs of white space as a single space.
+     */
+    protected static long hash(String text) {
+        long h = 0xCBF29CE484222325L;
+        boolean space = false;
+        boolean empty = true;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if (space && !empty) {
+                h = (h ^ ' ') * 0x100000001B3L;
+            }
+            space = false;
+            empty = false;
+            h = (h ^ Character.toLowerCase(c)) * 0x100000001B3L;
+        }
+        return h;
+    }
+
+    public long getCacheHits() {
+        return this.cacheHits.get();
+    }
+
+    public long getCacheMisses() {
+        return this.cacheMisses.get();
+    }
+
+    public double getCacheHitRate() {
+        long hits = this.cacheHits.get();
+        long total = hits + this.cacheMisses.get();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    /**
+     * Total time spent detecting the texts not in the cache, in milliseconds.
+     */
+    public double getDetectionTime() {
+        return this.detectionNanos.get() / 1e6;
+    }
+
+    /**
+     * Average time to detect a text not in the cache, in milliseconds.
+     */
+    public double getMeanDetectionTime() {
+        long misses = this.cacheMisses.get();
+        return misses == 0 ? 0.0 : getDetectionTime() / misses;
     }
 }
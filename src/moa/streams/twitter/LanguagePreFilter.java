@@ -0,0 +1,253 @@
+/*
+ *    LanguagePreFilter.java
+ *    Copyright (C) 2011 University of Waikato, Hamilton, New Zealand
+ *    @author Albert Bifet (abifet at cs dot waikato dot ac dot nz)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package moa.streams.twitter;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cheap tests run before LanguageDetect to accept or reject most tweets
+ * for a language without the n-gram detector.
+ *
+ * The first stage looks at the Unicode scripts of the letters of the raw
+ * text, skipping @users, #tags and links: a tweet with less than half of
+ * its letters in the script of the language is rejected. The second stage
+ * counts, in the cleaned text, the stopwords that only belong to the
+ * language and those that only belong to one of the other languages with
+ * a signature: a tweet with at least MIN_STOPWORDS of the first and none
+ * of the second is accepted, and the other way round it is rejected. The
+ * remaining tweets go to the detector. Each stage counts the tweets it
+ * decides.
+ *
+ * The filter of a language is shared by all the threads through
+ * getInstance, so its counters add up the tweets of every worker.
+ *
+ */
+public class LanguagePreFilter {
+
+    public static final int ACCEPT = 1;
+
+    public static final int REJECT = -1;
+
+    public static final int UNDECIDED = 0;
+
+    public static final int MIN_STOPWORDS = 3;
+
+    protected static final Map<String, Character.UnicodeScript> SCRIPTS =
+            new HashMap<String, Character.UnicodeScript>();
+
+    protected static final Map<String, String[]> STOPWORDS = new HashMap<String, String[]>();
+
+    static {
+        for (String language : new String[]{"af", "cs", "da", "de", "en", "es", "et", "fi", "fr",
+                    "hr", "hu", "id", "it", "lt", "lv", "nl", "no", "pl", "pt", "ro", "sk", "sl",
+                    "so", "sq", "sv", "sw", "tl", "tr", "vi"}) {
+            SCRIPTS.put(language, Character.UnicodeScript.LATIN);
+        }
+        for (String language : new String[]{"bg", "mk", "ru", "uk"}) {
+            SCRIPTS.put(language, Character.UnicodeScript.CYRILLIC);
+        }
+        for (String language : new String[]{"ar", "fa", "ur"}) {
+            SCRIPTS.put(language, Character.UnicodeScript.ARABIC);
+        }
+        for (String language : new String[]{"hi", "mr", "ne"}) {
+            SCRIPTS.put(language, Character.UnicodeScript.DEVANAGARI);
+        }
+        SCRIPTS.put("bn", Character.UnicodeScript.BENGALI);
+        SCRIPTS.put("el", Character.UnicodeScript.GREEK);
+        SCRIPTS.put("gu", Character.UnicodeScript.GUJARATI);
+        SCRIPTS.put("he", Character.UnicodeScript.HEBREW);
+        SCRIPTS.put("kn", Character.UnicodeScript.KANNADA);
+        SCRIPTS.put("ko", Character.UnicodeScript.HANGUL);
+        SCRIPTS.put("ml", Character.UnicodeScript.MALAYALAM);
+        SCRIPTS.put("pa", Character.UnicodeScript.GURMUKHI);
+        SCRIPTS.put("ta", Character.UnicodeScript.TAMIL);
+        SCRIPTS.put("te", Character.UnicodeScript.TELUGU);
+        SCRIPTS.put("th", Character.UnicodeScript.THAI);
+        SCRIPTS.put("zh-cn", Character.UnicodeScript.HAN);
+        SCRIPTS.put("zh-tw", Character.UnicodeScript.HAN);
+
+        // Frequent words written only with ASCII letters, as left by the
+        // cleaner, and not frequent in the other languages of the table
+        STOPWORDS.put("en", new String[]{"the", "and", "is", "are", "was", "you", "that", "this",
+                    "with", "for", "have", "not", "but", "what", "just", "my", "it", "of", "to", "be"});
+        STOPWORDS.put("es", new String[]{"el", "los", "las", "y", "que", "con", "para", "una",
+                    "lo", "pero", "mas", "yo", "muy", "del", "esta", "todo", "cuando", "porque"});
+        STOPWORDS.put("pt", new String[]{"os", "que", "com", "para", "uma", "um", "nao", "mas",
+                    "eu", "voce", "muito", "do", "isso", "ele", "ela", "tem", "esta", "quando"});
+        STOPWORDS.put("fr", new String[]{"le", "les", "et", "est", "que", "pour", "avec", "une",
+                    "pas", "mais", "nous", "vous", "des", "ce", "qui", "sur", "dans", "suis"});
+        STOPWORDS.put("de", new String[]{"der", "und", "ist", "nicht", "mit", "ich", "sie", "ein",
+                    "eine", "auf", "auch", "dem", "zu", "wir", "bin", "aber", "noch", "wie"});
+        STOPWORDS.put("it", new String[]{"gli", "che", "non", "per", "con", "una", "sono", "ma",
+                    "io", "questo", "della", "ho", "anche", "sei", "tutto", "perche", "come"});
+        STOPWORDS.put("nl", new String[]{"het", "een", "niet", "met", "ik", "van", "dat", "op",
+                    "voor", "zijn", "maar", "wat", "ook", "naar", "bij", "heb", "jij", "wij"});
+    }
+
+    protected static final Map<String, LanguagePreFilter> INSTANCES =
+            new HashMap<String, LanguagePreFilter>();
+
+    protected String language;
+
+    protected Character.UnicodeScript script;
+
+    /** Stopwords of the language, and of the other languages, not shared */
+    protected Set<String> stopwords = new HashSet<String>();
+
+    protected Set<String> otherStopwords = new HashSet<String>();
+
+    protected final AtomicLong numScriptRejected = new AtomicLong();
+
+    protected final AtomicLong numStopwordAccepted = new AtomicLong();
+
+    protected final AtomicLong numStopwordRejected = new AtomicLong();
+
+    protected final AtomicLong numUndecided = new AtomicLong();
+
+    /**
+     * The filter of a language, shared by all the tweets.
+     */
+    public static synchronized LanguagePreFilter getInstance(String language) {
+        LanguagePreFilter filter = INSTANCES.get(language);
+        if (filter == null) {
+            filter = new LanguagePreFilter(language);
+            INSTANCES.put(language, filter);
+        }
+        return filter;
+    }
+
+    public LanguagePreFilter(String language) {
+        this.language = language;
+        this.script = SCRIPTS.get(language);
+        Map<String, Integer> numLanguages = new HashMap<String, Integer>();
+        for (String[] words : STOPWORDS.values()) {
+            for (String word : words) {
+                Integer n = numLanguages.get(word);
+                numLanguages.put(word, n == null ? 1 : n + 1);
+            }
+        }
+        for (Map.Entry<String, String[]> e : STOPWORDS.entrySet()) {
+            Set<String> set = e.getKey().equals(language) ? this.stopwords : this.otherStopwords;
+            for (String word : e.getValue()) {
+                if (numLanguages.get(word) == 1) {
+                    set.add(word);
+                }
+            }
+        }
+        if (this.stopwords.isEmpty()) {
+            // Without a signature for the language, the other stopwords
+            // cannot tell anything either
+            this.otherStopwords.clear();
+        }
+    }
+
+    public String getLanguage() {
+        return this.language;
+    }
+
+    /**
+     * First stage, on the text of the tweet before cleaning.
+     *
+     * @return REJECT or UNDECIDED
+     */
+    public int checkScript(String text) {
+        if (this.script == null) {
+            return UNDECIDED;
+        }
+        int letters = 0;
+        int inScript = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if ((c == '@' || c == '#' || text.startsWith("http", i))
+                    && (i == 0 || Character.isWhitespace(text.charAt(i - 1)))) {
+                while (i < length && !Character.isWhitespace(text.charAt(i))) {
+                    i++;
+                }
+                continue;
+            }
+            int codePoint = text.codePointAt(i);
+            if (Character.isLetter(codePoint)) {
+                letters++;
+                if (Character.UnicodeScript.of(codePoint) == this.script) {
+                    inScript++;
+                }
+            }
+            i += Character.charCount(codePoint);
+        }
+        if (letters > 0 && 2 * inScript < letters) {
+            this.numScriptRejected.incrementAndGet();
+            return REJECT;
+        }
+        return UNDECIDED;
+    }
+
+    /**
+     * Second stage, on the cleaned text of the tweet.
+     *
+     * @return ACCEPT, REJECT or UNDECIDED
+     */
+    public int checkStopwords(String message) {
+        int own = 0;
+        int other = 0;
+        for (String token : message.split(" ")) {
+            String word = token.toLowerCase();
+            if (this.stopwords.contains(word)) {
+                own++;
+            } else if (this.otherStopwords.contains(word)) {
+                other++;
+            }
+        }
+        if (own >= MIN_STOPWORDS && other == 0) {
+            this.numStopwordAccepted.incrementAndGet();
+            return ACCEPT;
+        }
+        if (other >= MIN_STOPWORDS && own == 0) {
+            this.numStopwordRejected.incrementAndGet();
+            return REJECT;
+        }
+        this.numUndecided.incrementAndGet();
+        return UNDECIDED;
+    }
+
+    public long getNumScriptRejected() {
+        return this.numScriptRejected.get();
+    }
+
+    public long getNumStopwordAccepted() {
+        return this.numStopwordAccepted.get();
+    }
+
+    public long getNumStopwordRejected() {
+        return this.numStopwordRejected.get();
+    }
+
+    /**
+     * Number of tweets left to the detector.
+     */
+    public long getNumUndecided() {
+        return this.numUndecided.get();
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ *    LanguageProfiles.java
+ *    Copyright (C) 2011 University of Waikato, Hamilton, New Zealand
+ *    @author Albert Bifet (abifet at cs dot waikato dot ac dot nz)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package moa.streams.twitter;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.cybozu.labs.langdetect.DetectorFactory;
+import com.cybozu.labs.langdetect.util.LangProfile;
+
+import net.arnx.jsonic.JSON;
+import net.arnx.jsonic.JSONException;
+
+/**
+ * Loads language profiles into DetectorFactory, either all of them or only
+ * the languages of interest, from the JSON files of langdetect or from a
+ * compact binary file.
+ *
+ * The detector scores every loaded language for each n-gram of a tweet, so
+ * loading two or three languages makes detection cheaper, at the price of
+ * probabilities only relative to those languages. The binary file is made
+ * once with the main method of this class and is read through a memory
+ * mapping, without parsing any JSON. It holds a magic number, a version,
+ * the number of profiles and, for each profile, its size in bytes, its
+ * name, its number of words of each length and its n-grams with their
+ * frequencies.
+ *
+ * DetectorFactory has no public method to add a subset of profiles, so its
+ * tables are filled through reflection, with the probabilities computed as
+ * DetectorFactory.addProfile does.
+ *
+ */
+public class LanguageProfiles {
+
+    public static final int MAGIC = 0x4C445042; // "LDPB"
+
+    public static final int VERSION = 1;
+
+    /**
+     * Read the JSON profiles of a directory.
+     *
+     * @param languages the languages to read, or null for all of them
+     */
+    public static List<LangProfile> readJson(File directory, String[] languages) throws IOException {
+        File[] files;
+        if (languages == null) {
+            files = directory.listFiles();
+            if (files == null) {
+                throw new IOException("Language profile directory not found: " + directory);
+            }
+            Arrays.sort(files);
+        } else {
+            files = new File[languages.length];
+            for (int i = 0; i < languages.length; i++) {
+                files[i] = new File(directory, languages[i]);
+            }
+        }
+        List<LangProfile> profiles = new ArrayList<LangProfile>();
+        for (File file : files) {
+            if (file.getName().startsWith(".") || !file.isFile()) {
+                if (languages != null) {
+                    throw new IOException("Language profile not found: " + file);
+                }
+                continue;
+            }
+            InputStream in = null;
+            try {
+                in = new FileInputStream(file);
+                profiles.add(JSON.decode(in, LangProfile.class));
+            } catch (JSONException ex) {
+                throw new IOException("Not a language profile: " + file, ex);
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException ex) {
+                    }
+                }
+            }
+        }
+        return profiles;
+    }
+
+    /**
+     * Write profiles to a binary file.
+     */
+    public static void writeBinary(List<LangProfile> profiles, File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(profiles.size());
+            for (LangProfile profile : profiles) {
+                int size = 2 * (profile.name.length() + 1) + 4 * (profile.n_words.length + 2);
+                for (String gram : profile.freq.keySet()) {
+                    size += 2 * (gram.length() + 1) + 4;
+                }
+                out.writeInt(size);
+                writeString(out, profile.name);
+                out.writeInt(profile.n_words.length);
+                for (int n : profile.n_words) {
+                    out.writeInt(n);
+                }
+                out.writeInt(profile.freq.size());
+                for (Map.Entry<String, Integer> e : profile.freq.entrySet()) {
+                    writeString(out, e.getKey());
+                    out.writeInt(e.getValue());
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    protected static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeChar(s.length());
+        out.writeChars(s);
+    }
+
+    protected static String readString(ByteBuffer in, char[] chars) {
+        int length = in.getChar();
+        for (int i = 0; i < length; i++) {
+            chars[i] = in.getChar();
+        }
+        return new String(chars, 0, length);
+    }
+
+    /**
+     * Load profiles into DetectorFactory, which must have none yet.
+     */
+    public static void load(List<LangProfile> profiles) throws IOException {
+        DetectorFactory factory = getFactory();
+        Map<String, double[]> wordLangProbMap = factory.wordLangProbMap;
+        List<String> langlist = factory.langlist;
+        List<String> names = new ArrayList<String>();
+        for (LangProfile profile : profiles) {
+            names.add(profile.name);
+        }
+        checkNames(names, null, langlist);
+        int numLanguages = profiles.size();
+        for (int index = 0; index < numLanguages; index++) {
+            LangProfile profile = profiles.get(index);
+            langlist.add(profile.name);
+            for (Map.Entry<String, Integer> e : profile.freq.entrySet()) {
+                addGram(wordLangProbMap, e.getKey(), e.getValue(), profile.n_words, index, numLanguages);
+            }
+        }
+    }
+
+    /**
+     * Load profiles of a binary file into DetectorFactory, which must have
+     * none yet.
+     *
+     * @param languages the languages to load, or null for all of them
+     */
+    public static void loadBinary(File file, String[] languages) throws IOException {
+        MappedByteBuffer in;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            in = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+        if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+            throw new IOException("Not a language profile: " + file);
+        }
+        int numProfiles = in.getInt();
+        char[] chars = new char[Character.MAX_VALUE + 1];
+
+        // Position of the profiles to load
+        Map<String, Integer> positions = new HashMap<String, Integer>();
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < numProfiles; i++) {
+            int size = in.getInt();
+            int position = in.position();
+            String name = readString(in, chars);
+            positions.put(name, position);
+            names.add(name);
+            in.position(position + size);
+        }
+        if (languages != null) {
+            names = Arrays.asList(languages);
+        }
+
+        DetectorFactory factory = getFactory();
+        Map<String, double[]> wordLangProbMap = factory.wordLangProbMap;
+        List<String> langlist = factory.langlist;
+        checkNames(names, positions, langlist);
+        int numLanguages = names.size();
+        for (int index = 0; index < numLanguages; index++) {
+            String name = names.get(index);
+            langlist.add(name);
+            in.position(positions.get(name));
+            readString(in, chars);
+            int[] nWords = new int[in.getInt()];
+            for (int i = 0; i < nWords.length; i++) {
+                nWords[i] = in.getInt();
+            }
+            int numGrams = in.getInt();
+            for (int i = 0; i < numGrams; i++) {
+                String gram = readString(in, chars);
+                addGram(wordLangProbMap, gram, in.getInt(), nWords, index, numLanguages);
+            }
+        }
+    }
+
+    /**
+     * Check all the profiles to load before DetectorFactory is changed, so
+     * that a failed load leaves it empty and a later one can succeed.
+     *
+     * @param positions the profiles found, or null if they all were
+     */
+    protected static void checkNames(List<String> names, Map<String, Integer> positions,
+            List<String> langlist) throws IOException {
+        Set<String> seen = new HashSet<String>(langlist);
+        for (String name : names) {
+            if (positions != null && !positions.containsKey(name)) {
+                throw new IOException("Language profile not found: " + name);
+            }
+            if (!seen.add(name)) {
+                throw new IOException("Duplicate language profile: " + name);
+            }
+        }
+    }
+
+    /**
+     * Load profiles from a binary file, or from a directory of JSON files.
+     *
+     * @param languages the languages to load, or null for all of them
+     */
+    public static void load(File profiles, String[] languages) throws IOException {
+        if (profiles.isDirectory()) {
+            load(readJson(profiles, languages));
+        } else {
+            loadBinary(profiles, languages);
+        }
+    }
+
+    protected static void addGram(Map<String, double[]> wordLangProbMap, String gram, int freq,
+            int[] nWords, int index, int numLanguages) {
+        double[] probs = wordLangProbMap.get(gram);
+        if (probs == null) {
+            probs = new double[numLanguages];
+            wordLangProbMap.put(gram, probs);
+        }
+        int length = gram.length();
+        if (length >= 1 && length <= 3) {
+            probs[index] = (double) freq / nWords[length - 1];
+        }
+    }
+
+    protected static DetectorFactory getFactory() {
+        try {
+            Field field = DetectorFactory.class.getDeclaredField("instance_");
+            field.setAccessible(true);
+            return (DetectorFactory) field.get(null);
+        } catch (Exception ex) {
+            throw new IllegalStateException("Cannot access the profiles of DetectorFactory", ex);
+        }
+    }
+
+    /**
+     * Convert a directory of JSON profiles into a binary file.
+     *
+     * Usage: LanguageProfiles profileDirectory binaryFile [language ...]
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: LanguageProfiles profileDirectory binaryFile [language ...]");
+            System.exit(1);
+        }
+        String[] languages = null;
+        if (args.length > 2) {
+            languages = Arrays.copyOfRange(args, 2, args.length);
+        }
+        List<LangProfile> profiles = readJson(new File(args[0]), languages);
+        writeBinary(profiles, new File(args[1]));
+        System.out.println("Wrote " + profiles.size() + " profiles to " + args[1]);
+    }
+}
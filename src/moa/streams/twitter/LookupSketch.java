@@ -0,0 +1,58 @@
+/*
+ *    LookupSketch.java
+ *    Copyright (C) 2011 University of Waikato, Hamilton, New Zealand
+ *    @author Albert Bifet (abifet at cs dot waikato dot ac dot nz)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package moa.streams.twitter;
+
+/**
+ * Interface of a Sketch that finds the attribute index and the count of a
+ * token with a single lookup. Default.lookup asks any other sketch with
+ * getAttIndex and getCount.
+ *
+ */
+public interface LookupSketch extends Sketch {
+
+    /**
+     * Attribute index and count of a token, as getAttIndex and getCount
+     * give them.
+     *
+     * @param counts - receives the count of the token at position i, or
+     * 0 if it has no attribute
+     * @return the attribute index, or -1 if the token has none
+     */
+    public int lookup(String token, double[] counts, int i);
+
+    /**
+     * Lookup of any sketch, with the lookup of a LookupSketch or else
+     * with getAttIndex and getCount.
+     */
+    public static class Default {
+
+        private Default() {
+        }
+
+        public static int lookup(Sketch sketch, String token, double[] counts, int i) {
+            if (sketch instanceof LookupSketch) {
+                return ((LookupSketch) sketch).lookup(token, counts, i);
+            }
+            int attIndex = sketch.getAttIndex(token);
+            counts[i] = (attIndex == -1) ? 0 : sketch.getCount(token);
+            return attIndex;
+        }
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ *    MappedTweetFileReader.java
+ *    Copyright (C) 2011 University of Waikato, Hamilton, New Zealand
+ *    @author Albert Bifet (abifet at cs dot waikato dot ac dot nz)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package moa.streams.twitter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reader of large .tweet files, cleaning their lines in parallel.
+ *
+ * The file is cut into chunks of about chunkSize bytes, each one ending
+ * after a new line, and each chunk is memory mapped, decoded and split into
+ * lines by one of the threads, which reads its lines as TweetReader does
+ * with its own Tweet. The chunks are numbered as they are taken and their
+ * tweets are handed by next in that order, so they come in the order of
+ * the file; a thread finishing a chunk more than a window ahead of the
+ * oldest one not read yet waits.
+ *
+ * Lines are decoded with the default charset and split at \n, \r or \r\n,
+ * as BufferedReader over a FileReader does. The charset must encode the
+ * new line as the single byte 10, as UTF-8 and ISO-8859-1 do, so that a
+ * chunk always starts at a character. Lines giving no tweet are skipped.
+ *
+ */
+public class MappedTweetFileReader {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 22;
+
+    /** Bytes read at a time to find the end of a chunk */
+    protected static final int SCAN_SIZE = 1 << 12;
+
+    protected final File file;
+
+    protected final RandomAccessFile raf;
+
+    protected final FileChannel channel;
+
+    protected final long size;
+
+    protected final int chunkSize;
+
+    protected final EmoticonDictionary dictionary;
+
+    protected final String language;
+
+    protected final int numThreads;
+
+    protected final List<Thread> threads = new ArrayList<Thread>();
+
+    protected volatile boolean isRunning = false;
+
+    // Chunks to take, guarded by chunkLock
+
+    protected final Object chunkLock = new Object();
+
+    protected final ByteBuffer scanBuffer = ByteBuffer.allocate(SCAN_SIZE);
+
+    protected long nextChunkStart = 0;
+
+    protected long nextChunk = 0;
+
+    // Chunks read, guarded by window
+
+    protected final Object[] window;
+
+    protected long nextRelease = 0;
+
+    protected long numChunks = -1;
+
+    /** First error of a thread, thrown by next */
+    protected Throwable failure;
+
+    // Chunk being handed by next
+
+    protected List<LabeledTweet> tweets;
+
+    protected int nextTweet = 0;
+
+    public MappedTweetFileReader(File file, EmoticonDictionary dictionary, String language,
+            int numThreads, int chunkSize) throws IOException {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("At least one thread is needed");
+        }
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size out of range: " + chunkSize);
+        }
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "r");
+        this.channel = this.raf.getChannel();
+        this.size = this.channel.size();
+        this.chunkSize = chunkSize;
+        this.dictionary = dictionary;
+        this.language = language;
+        this.numThreads = numThreads;
+        this.window = new Object[Math.max(4, 2 * numThreads)];
+    }
+
+    public synchronized void start() {
+        if (this.isRunning) {
+            return;
+        }
+        this.isRunning = true;
+        for (int i = 0; i < this.numThreads; i++) {
+            Thread thread = new Thread(new Runnable() {
+
+                public void run() {
+                    work();
+                }
+            }, "tweet-file-reader-" + (i + 1));
+            thread.setDaemon(true);
+            this.threads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stop the threads and close the file.
+     */
+    public void close() throws IOException {
+        this.isRunning = false;
+        synchronized (this) {
+            for (Thread thread : this.threads) {
+                thread.interrupt();
+            }
+            for (Thread thread : this.threads) {
+                try {
+                    thread.join(1000);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            this.threads.clear();
+        }
+        this.raf.close();
+    }
+
+    /**
+     * The next tweet of the file, waiting for its chunk to be read.
+     *
+     * @return the tweet, or null at the end of the file
+     * @throws IOException if a thread failed reading the file
+     * @throws RuntimeException wrapping any other error of a thread
+     */
+    public LabeledTweet next() throws IOException, InterruptedException {
+        while (this.tweets == null || this.nextTweet == this.tweets.size()) {
+            this.tweets = takeChunk();
+            this.nextTweet = 0;
+            if (this.tweets == null) {
+                return null;
+            }
+        }
+        return this.tweets.get(this.nextTweet++);
+    }
+
+    /**
+     * Tweets of the next chunk in order, or null after the last one.
+     */
+    @SuppressWarnings("unchecked")
+    protected List<LabeledTweet> takeChunk() throws IOException, InterruptedException {
+        synchronized (this.window) {
+            int slot = (int) (this.nextRelease % this.window.length);
+            while (this.window[slot] == null) {
+                if (this.failure instanceof IOException) {
+                    throw (IOException) this.failure;
+                } else if (this.failure != null) {
+                    throw new RuntimeException("Failed reading " + this.file, this.failure);
+                }
+                if (this.nextRelease == this.numChunks) {
+                    return null;
+                }
+                this.window.wait();
+            }
+            List<LabeledTweet> chunk = (List<LabeledTweet>) this.window[slot];
+            this.window[slot] = null;
+            this.nextRelease++;
+            this.window.notifyAll();
+            return chunk;
+        }
+    }
+
+    /**
+     * Claim the next chunk, ending after the first new line at or after
+     * chunkSize bytes, or at the end of the file.
+     *
+     * @return its number, start and end, or null if the file is read
+     */
+    protected long[] nextChunk() throws IOException {
+        synchronized (this.chunkLock) {
+            long start = this.nextChunkStart;
+            if (start >= this.size) {
+                synchronized (this.window) {
+                    this.numChunks = this.nextChunk;
+                    this.window.notifyAll();
+                }
+                return null;
+            }
+            long end = findLineEnd(Math.min(this.size, start + this.chunkSize));
+            if (end - start > Integer.MAX_VALUE) {
+                throw new IOException("Line too long at byte " + start + " of " + this.file);
+            }
+            this.nextChunkStart = end;
+            return new long[]{this.nextChunk++, start, end};
+        }
+    }
+
+    /**
+     * Position after the first new line at or after a position, or the
+     * size of the file if there is none.
+     */
+    protected long findLineEnd(long position) throws IOException {
+        // The byte before the position may be the end of a line already.
+        // The bytes are read rather than mapped, not to leave a mapping
+        // for every few bytes scanned until the buffers are collected.
+        long pos = Math.max(0, position - 1);
+        ByteBuffer bytes = this.scanBuffer;
+        while (pos < this.size) {
+            bytes.clear();
+            int length = this.channel.read(bytes, pos);
+            if (length <= 0) {
+                break;
+            }
+            for (int i = 0; i < length; i++) {
+                if (bytes.get(i) == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += length;
+        }
+        return this.size;
+    }
+
+    protected void work() {
+        Tweet tweet = new Tweet(this.dictionary);
+        CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        try {
+            while (this.isRunning) {
+                long[] chunk = nextChunk();
+                if (chunk == null) {
+                    return;
+                }
+                MappedByteBuffer bytes = this.channel.map(FileChannel.MapMode.READ_ONLY,
+                        chunk[1], chunk[2] - chunk[1]);
+                CharBuffer chars = decoder.decode(bytes);
+                List<LabeledTweet> tweets = new ArrayList<LabeledTweet>();
+                readLines(chars, tweet, tweets);
+                release(chunk[0], tweets);
+            }
+        } catch (InterruptedException ex) {
+            // Stopped
+        } catch (Throwable ex) {
+            // Without its chunk next would wait forever
+            fail(ex);
+        }
+    }
+
+    protected void fail(Throwable ex) {
+        if (this.isRunning) {
+            synchronized (this.window) {
+                if (this.failure == null) {
+                    this.failure = ex;
+                }
+                this.window.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Split decoded chars into lines as BufferedReader.readLine does, and
+     * add the tweets of the lines.
+     */
+    protected void readLines(CharBuffer chars, Tweet tweet, List<LabeledTweet> tweets) {
+        int length = chars.remaining();
+        int lineStart = 0;
+        int i = 0;
+        while (i < length) {
+            char c = chars.get(i);
+            if (c == '\n' || c == '\r') {
+                addTweet(chars.subSequence(lineStart, i).toString(), tweet, tweets);
+                i++;
+                if (c == '\r' && i < length && chars.get(i) == '\n') {
+                    i++;
+                }
+                lineStart = i;
+            } else {
+                i++;
+            }
+        }
+        if (lineStart < length) {
+            addTweet(chars.subSequence(lineStart, length).toString(), tweet, tweets);
+        }
+    }
+
+    protected void addTweet(String line, Tweet tweet, List<LabeledTweet> tweets) {
+        LabeledTweet labeledTweet = TweetReader.readTweet(line, tweet, this.language);
+        if (labeledTweet != null) {
+            tweets.add(labeledTweet);
+        }
+    }
+
+    /**
+     * Put the tweets of a chunk in its slot, waiting while it is more than
+     * a window ahead of the oldest chunk not read yet.
+     */
+    protected void release(long chunk, List<LabeledTweet> tweets) throws InterruptedException {
+        synchronized (this.window) {
+            while (chunk - this.nextRelease >= this.window.length) {
+                this.window.wait();
+            }
+            this.window[(int) (chunk % this.window.length)] = tweets;
+            this.window.notifyAll();
+        }
+    }
+
+    public long getSize() {
+        return this.size;
+    }
+
+    public int getNumThreads() {
+        return this.numThreads;
+    }
+}
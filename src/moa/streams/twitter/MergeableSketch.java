@@ -0,0 +1,52 @@
+/*
+ *    MergeableSketch.java
+ *    Copyright (C) 2011 University of Waikato, Hamilton, New Zealand
+ *    @author Albert Bifet (abifet at cs dot waikato dot ac dot nz)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package moa.streams.twitter;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Interface of a Sketch that can be combined with other sketches of the
+ * same kind built on other parts of a stream, and written to and read from
+ * a compact binary form to ship partial sketches between processes.
+ *
+ */
+public interface MergeableSketch extends Sketch {
+
+    /**
+     * Add the counts of another sketch to this one. Tokens already counted
+     * keep their attribute index.
+     *
+     * @param other sketch of the same class and settings
+     * @throws IllegalArgumentException if the sketches cannot be merged
+     */
+    public void merge(Sketch other);
+
+    /**
+     * Write the counters of the sketch.
+     */
+    public void write(DataOutput out) throws IOException;
+
+    /**
+     * Replace the counters of the sketch by the ones written by write.
+     */
+    public void read(DataInput in) throws IOException;
+}
@@ -0,0 +1,451 @@
+/*
+ *    OffHeapSpaceSaving.java
+ *    Copyright (C) 2011 University of Waikato, Hamilton, New Zealand
+ *    @author Albert Bifet (abifet at cs dot waikato dot ac dot nz)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package moa.streams.twitter;
+
+import moa.options.FileOption;
+import moa.options.IntOption;
+import moa.options.AbstractOptionHandler;
+import moa.core.ObjectRepository;
+import moa.tasks.TaskMonitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Implementation of the SpaceSaving algorithm storing all its counters
+ * outside the Java heap, in a direct ByteBuffer or, if a backing file is
+ * given, in a memory-mapped file. A new sketch using an existing backing
+ * file with the same capacity and token width continues from the counters
+ * stored in it.
+ *
+ * The layout is the one of ArraySpaceSaving: a min-heap of counters by
+ * count and an open-addressing table from tokens to counters. Tokens are
+ * stored as UTF-8 in fixed-width slots of tokenBytes bytes, together with
+ * their length and a 64-bit hash of all their bytes. Longer tokens are
+ * truncated and told apart by length and hash.
+ *
+ */
+public class OffHeapSpaceSaving extends AbstractOptionHandler implements LookupSketch {
+
+    private static final long serialVersionUID = 1L;
+
+    public IntOption capacityOption = new IntOption("capacity", 'c', "Number of attributes to use", 10000);
+
+    public IntOption tokenBytesOption = new IntOption("tokenBytes", 't',
+            "Bytes stored for each token, longer tokens are compared by hash.", 32, 1, 1024);
+
+    public FileOption backingFileOption = new FileOption("backingFile", 'f',
+            "File to map the counters to, off-heap memory if not set.", null, "sketch", true);
+
+    public static final int MAGIC = 0x534B5353; // "SKSS"
+
+    public static final int VERSION = 1;
+
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // Header fields
+    protected static final int MAGIC_OFFSET = 0;
+
+    protected static final int VERSION_OFFSET = 4;
+
+    protected static final int CAPACITY_OFFSET = 8;
+
+    protected static final int TOKEN_BYTES_OFFSET = 12;
+
+    protected static final int TOP_OFFSET = 16;
+
+    protected static final int NUM_DOC_OFFSET = 20;
+
+    protected static final int NUM_TERMS_OFFSET = 24;
+
+    protected static final int HEADER_SIZE = 64;
+
+    // Counter record fields
+    protected static final int COUNT_OFFSET = 0;
+
+    protected static final int HASH_OFFSET = 8;
+
+    protected static final int HEAP_POS_OFFSET = 16;
+
+    protected static final int LENGTH_OFFSET = 20;
+
+    protected static final int TOKEN_OFFSET = 24;
+
+    protected transient ByteBuffer buffer;
+
+    protected int capacity;
+
+    protected int tokenBytes;
+
+    protected int recordSize;
+
+    protected int heapStart;
+
+    protected int tableStart;
+
+    protected int mask;
+
+    /**
+     * Map the backing file, or allocate a direct buffer, and initialise it
+     * unless it already holds a compatible sketch.
+     *
+     */
+    @Override
+    protected void prepareForUseImpl(TaskMonitor arg0, ObjectRepository arg1) {
+        this.capacity = this.capacityOption.getValue();
+        this.tokenBytes = this.tokenBytesOption.getValue();
+        this.recordSize = (TOKEN_OFFSET + this.tokenBytes + 7) & ~7;
+        int tableSize = Integer.highestOneBit(Math.max(2 * this.capacity - 1, 1)) << 1;
+        this.mask = tableSize - 1;
+        long size = HEADER_SIZE + (long) this.capacity * this.recordSize;
+        this.heapStart = (int) size;
+        size += 4L * this.capacity;
+        this.tableStart = (int) size;
+        size += 4L * tableSize;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    "Sketch of " + size + " bytes is too large for a single buffer");
+        }
+
+        File file = this.backingFileOption.getFile();
+        if (file == null) {
+            this.buffer = ByteBuffer.allocateDirect((int) size);
+            initialise();
+            return;
+        }
+        try {
+            boolean exists = file.exists() && file.length() > 0;
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+                this.buffer = mapped;
+            } finally {
+                // The mapping stays valid after the file is closed
+                raf.close();
+            }
+            if (!exists) {
+                initialise();
+            } else if (this.buffer.getInt(MAGIC_OFFSET) != MAGIC
+                    || this.buffer.getInt(VERSION_OFFSET) != VERSION
+                    || this.buffer.getInt(CAPACITY_OFFSET) != this.capacity
+                    || this.buffer.getInt(TOKEN_BYTES_OFFSET) != this.tokenBytes) {
+                throw new IllegalStateException("File " + file
+                        + " does not hold a sketch with capacity " + this.capacity
+                        + " and " + this.tokenBytes + " token bytes");
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException(
+                    "Failed mapping sketch file " + file, ex);
+        }
+    }
+
+    /**
+     * Write the header of an empty sketch. New direct buffers and new file
+     * regions are already filled with zeros.
+     */
+    protected void initialise() {
+        this.buffer.putInt(MAGIC_OFFSET, MAGIC);
+        this.buffer.putInt(VERSION_OFFSET, VERSION);
+        this.buffer.putInt(CAPACITY_OFFSET, this.capacity);
+        this.buffer.putInt(TOKEN_BYTES_OFFSET, this.tokenBytes);
+    }
+
+    /**
+     * Write the changes of a mapped sketch to its backing file.
+     */
+    public void flush() {
+        if (this.buffer instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) this.buffer).force();
+        }
+    }
+
+    protected int top() {
+        return this.buffer.getInt(TOP_OFFSET);
+    }
+
+    protected int record(int counter) {
+        return HEADER_SIZE + counter * this.recordSize;
+    }
+
+    protected long count(int counter) {
+        return this.buffer.getLong(record(counter) + COUNT_OFFSET);
+    }
+
+    protected int heap(int pos) {
+        return this.buffer.getInt(this.heapStart + 4 * pos);
+    }
+
+    protected void setHeap(int pos, int counter) {
+        this.buffer.putInt(this.heapStart + 4 * pos, counter);
+        this.buffer.putInt(record(counter) + HEAP_POS_OFFSET, pos);
+    }
+
+    protected int table(int pos) {
+        return this.buffer.getInt(this.tableStart + 4 * pos);
+    }
+
+    protected void setTable(int pos, int entry) {
+        this.buffer.putInt(this.tableStart + 4 * pos, entry);
+    }
+
+    /** FNV-1a hash of the token bytes */
+    protected static long hash(byte[] bytes) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    protected int home(long h) {
+        return (int) (h ^ (h >>> 32)) & this.mask;
+    }
+
+    protected boolean matches(int counter, byte[] bytes, long h) {
+        int r = record(counter);
+        if (this.buffer.getLong(r + HASH_OFFSET) != h
+                || this.buffer.getInt(r + LENGTH_OFFSET) != bytes.length) {
+            return false;
+        }
+        int n = Math.min(bytes.length, this.tokenBytes);
+        for (int i = 0; i < n; i++) {
+            if (this.buffer.get(r + TOKEN_OFFSET + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the counter of a token.
+     *
+     * @return counter, or -1 if the token is not counted
+     */
+    protected int find(byte[] bytes, long h) {
+        int pos = home(h);
+        int entry;
+        while ((entry = table(pos)) != 0) {
+            if (matches(entry - 1, bytes, h)) {
+                return entry - 1;
+            }
+            pos = (pos + 1) & this.mask;
+        }
+        return -1;
+    }
+
+    protected void insert(int counter, long h) {
+        int pos = home(h);
+        while (table(pos) != 0) {
+            pos = (pos + 1) & this.mask;
+        }
+        setTable(pos, counter + 1);
+    }
+
+    /**
+     * Remove a counter from the hash table, shifting back the entries that
+     * follow it so that no tombstones are needed.
+     */
+    protected void delete(int counter) {
+        int pos = home(this.buffer.getLong(record(counter) + HASH_OFFSET));
+        while (table(pos) != counter + 1) {
+            pos = (pos + 1) & this.mask;
+        }
+        int next = (pos + 1) & this.mask;
+        int entry;
+        while ((entry = table(next)) != 0) {
+            int home = home(this.buffer.getLong(record(entry - 1) + HASH_OFFSET));
+            if (((next - home) & this.mask) >= ((next - pos) & this.mask)) {
+                setTable(pos, entry);
+                pos = next;
+            }
+            next = (next + 1) & this.mask;
+        }
+        setTable(pos, 0);
+    }
+
+    protected void setToken(int counter, byte[] bytes, long h) {
+        int r = record(counter);
+        this.buffer.putLong(r + HASH_OFFSET, h);
+        this.buffer.putInt(r + LENGTH_OFFSET, bytes.length);
+        int n = Math.min(bytes.length, this.tokenBytes);
+        for (int i = 0; i < n; i++) {
+            this.buffer.put(r + TOKEN_OFFSET + i, bytes[i]);
+        }
+    }
+
+    /**
+     * Token of a counter, truncated to tokenBytes bytes.
+     */
+    protected String getToken(int counter) {
+        int r = record(counter);
+        int n = Math.min(this.buffer.getInt(r + LENGTH_OFFSET), this.tokenBytes);
+        byte[] bytes = new byte[n];
+        for (int i = 0; i < n; i++) {
+            bytes[i] = this.buffer.get(r + TOKEN_OFFSET + i);
+        }
+        return new String(bytes, UTF8);
+    }
+
+    public int addToken(String token, int freq, int classIndex) {
+        return addToken(token, freq);
+    }
+
+    /**
+     * Add a token to be counted.
+     *
+     * @param token
+     * @param freq
+     * @return attributeIndex which is useful for constructing Instance objects
+     */
+    public int addToken(String token, int freq) {
+        byte[] bytes = token.getBytes(UTF8);
+        long h = hash(bytes);
+        int counter = find(bytes, h);
+        boolean isNew = false;
+        if (counter == -1) {
+            int top = top();
+            if (top < this.capacity) {
+                counter = top;
+                this.buffer.putInt(TOP_OFFSET, top + 1);
+                setHeap(counter, counter);
+                isNew = true;
+            } else {
+                // Replace the token with the smallest count
+                counter = heap(0);
+                delete(counter);
+            }
+            setToken(counter, bytes, h);
+            insert(counter, h);
+        }
+        int r = record(counter);
+        this.buffer.putLong(r + COUNT_OFFSET, this.buffer.getLong(r + COUNT_OFFSET) + freq);
+        int pos = this.buffer.getInt(r + HEAP_POS_OFFSET);
+        if (freq < 0 || isNew) {
+            siftUp(pos);
+        } else {
+            siftDown(pos);
+        }
+        return counter;
+    }
+
+    protected void siftUp(int pos) {
+        int counter = heap(pos);
+        long count = count(counter);
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            int p = heap(parent);
+            if (count(p) <= count) {
+                break;
+            }
+            setHeap(pos, p);
+            pos = parent;
+        }
+        setHeap(pos, counter);
+    }
+
+    protected void siftDown(int pos) {
+        int counter = heap(pos);
+        long count = count(counter);
+        int top = top();
+        int half = top >>> 1;
+        while (pos < half) {
+            int child = 2 * pos + 1;
+            int c = heap(child);
+            int right = child + 1;
+            if (right < top) {
+                int rc = heap(right);
+                if (count(rc) < count(c)) {
+                    child = right;
+                    c = rc;
+                }
+            }
+            if (count <= count(c)) {
+                break;
+            }
+            setHeap(pos, c);
+            pos = child;
+        }
+        setHeap(pos, counter);
+    }
+
+    /**
+     * Retrieve the (estimated, upper-bound) count for any token
+     *
+     * @param token
+     * @return count (or 0 if not being counted currently, i.e. not frequent enough)
+     */
+    public double getCount(String token) {
+        byte[] bytes = token.getBytes(UTF8);
+        int counter = find(bytes, hash(bytes));
+        return counter == -1 ? 0.0 : count(counter);
+    }
+
+    /**
+     * Get the attribute index of the token specified.
+     *
+     * @param token
+     * @return
+     */
+    public int getAttIndex(String token) {
+        byte[] bytes = token.getBytes(UTF8);
+        return find(bytes, hash(bytes));
+    }
+
+    public int lookup(String token, double[] counts, int i) {
+        byte[] bytes = token.getBytes(UTF8);
+        int counter = find(bytes, hash(bytes));
+        counts[i] = counter == -1 ? 0.0 : count(counter);
+        return counter;
+    }
+
+    /**
+     * Print all counters to System.out, in heap order, useful for debugging
+     *
+     */
+    public void showNodes() {
+        int top = top();
+        for (int pos = 0; pos < top; pos++) {
+            int counter = heap(pos);
+            System.out.println("" + counter + "," + count(counter) + "," + getToken(counter));
+        }
+    }
+
+    public void addDoc(double docSize) {
+        this.buffer.putInt(NUM_DOC_OFFSET, this.buffer.getInt(NUM_DOC_OFFSET) + 1);
+        this.buffer.putDouble(NUM_TERMS_OFFSET, this.buffer.getDouble(NUM_TERMS_OFFSET) + docSize);
+    }
+
+    public void remove(String token) {
+    }
+
+    public double getFreqWord(String word) {
+        return getCount(word) / this.buffer.getDouble(NUM_TERMS_OFFSET);
+    }
+
+    @Override
+    public void getDescription(StringBuilder arg0, int arg1) {
+    }
+}
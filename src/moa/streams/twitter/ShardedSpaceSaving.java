@@ -0,0 +1,218 @@
+/*
+ *    ShardedSpaceSaving.java
+ *    Copyright (C) 2011 University of Waikato, Hamilton, New Zealand
+ *    @author Albert Bifet (abifet at cs dot waikato dot ac dot nz)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package moa.streams.twitter;
+
+import moa.options.IntOption;
+import moa.options.AbstractOptionHandler;
+import moa.core.ObjectRepository;
+import moa.tasks.TaskMonitor;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread-safe SpaceSaving sketch for multi-threaded ingest.
+ *
+ * Tokens are partitioned by hash among numShards independent
+ * StreamSummary sketches, each one guarded by its own lock, so threads
+ * only contend when they update tokens of the same shard. The shards hold
+ * capacity counters between them, and there are at most capacity shards.
+ * Attribute indices are dense: a counter used for the first time, in any
+ * shard, takes the next index of an allocator shared by all the shards,
+ * so the indices given out are 0, 1, 2, ... below capacity, as the header
+ * of the stream expects. As in SpaceSaving, the index of a counter is
+ * inherited by the token replacing it.
+ *
+ */
+public class ShardedSpaceSaving extends AbstractOptionHandler implements LookupSketch {
+
+    private static final long serialVersionUID = 1L;
+
+    public IntOption capacityOption = new IntOption("capacity", 'c', "Number of attributes to use", 10000);
+
+    public IntOption numShardsOption = new IntOption("numShards", 'n',
+            "Number of independently locked partitions.", 16, 1, 1024);
+
+    protected int numShards;
+
+    protected StreamSummary[] shards;
+
+    protected ReentrantLock[] locks;
+
+    /** Attribute index of each local index of each shard, or -1 if not used yet */
+    protected int[][] attIndices;
+
+    /** Next attribute index to give out */
+    protected AtomicInteger nextAttIndex = new AtomicInteger();
+
+    protected AtomicInteger numDoc = new AtomicInteger();
+
+    /** Bits of the double number of terms, updated with compare-and-set */
+    protected AtomicLong numTerms = new AtomicLong(Double.doubleToLongBits(0.0));
+
+    /**
+     * Initialise the shards
+     *
+     */
+    @Override
+    protected void prepareForUseImpl(TaskMonitor arg0, ObjectRepository arg1) {
+        int capacity = Math.max(1, this.capacityOption.getValue());
+        this.numShards = Math.min(this.numShardsOption.getValue(), capacity);
+        this.shards = new StreamSummary[this.numShards];
+        this.locks = new ReentrantLock[this.numShards];
+        this.attIndices = new int[this.numShards][];
+        for (int i = 0; i < this.numShards; i++) {
+            // The first capacity % numShards shards hold one more counter
+            int shardCapacity = capacity / this.numShards + (i < capacity % this.numShards ? 1 : 0);
+            this.shards[i] = new StreamSummary();
+            this.shards[i].capacityOption.setValue(shardCapacity);
+            this.shards[i].prepareForUse();
+            this.locks[i] = new ReentrantLock();
+            this.attIndices[i] = new int[shardCapacity];
+            Arrays.fill(this.attIndices[i], -1);
+        }
+        this.nextAttIndex.set(0);
+        this.numDoc.set(0);
+        this.numTerms.set(Double.doubleToLongBits(0.0));
+    }
+
+    protected int shard(String token) {
+        int h = token.hashCode() * 0x9E3779B9;
+        h ^= h >>> 16;
+        return (int) ((h & 0xFFFFFFFFL) % this.numShards);
+    }
+
+    /**
+     * Attribute index of a local index of a shard, given out by the shared
+     * allocator the first time the counter is used. Called with the lock
+     * of the shard held.
+     */
+    protected int globalIndex(int localIndex, int shard) {
+        if (localIndex == -1) {
+            return -1;
+        }
+        int[] indices = this.attIndices[shard];
+        if (indices[localIndex] == -1) {
+            indices[localIndex] = this.nextAttIndex.getAndIncrement();
+        }
+        return indices[localIndex];
+    }
+
+    public int addToken(String token, int freq, int classIndex) {
+        return addToken(token, freq);
+    }
+
+    /**
+     * Add a token to be counted.
+     *
+     * @param token
+     * @param freq
+     * @return attributeIndex which is useful for constructing Instance objects
+     */
+    public int addToken(String token, int freq) {
+        int s = shard(token);
+        this.locks[s].lock();
+        try {
+            return globalIndex(this.shards[s].addToken(token, freq), s);
+        } finally {
+            this.locks[s].unlock();
+        }
+    }
+
+    /**
+     * Retrieve the (estimated, upper-bound) count for any token
+     *
+     * @param token
+     * @return count (or 0 if not being counted currently, i.e. not frequent enough)
+     */
+    public double getCount(String token) {
+        int s = shard(token);
+        this.locks[s].lock();
+        try {
+            return this.shards[s].getCount(token);
+        } finally {
+            this.locks[s].unlock();
+        }
+    }
+
+    /**
+     * Get the attribute index of the token specified.
+     *
+     * @param token
+     * @return
+     */
+    public int getAttIndex(String token) {
+        int s = shard(token);
+        this.locks[s].lock();
+        try {
+            return globalIndex(this.shards[s].getAttIndex(token), s);
+        } finally {
+            this.locks[s].unlock();
+        }
+    }
+
+    public int lookup(String token, double[] counts, int i) {
+        int s = shard(token);
+        this.locks[s].lock();
+        try {
+            return globalIndex(this.shards[s].lookup(token, counts, i), s);
+        } finally {
+            this.locks[s].unlock();
+        }
+    }
+
+    /**
+     * Print the nodes of every shard to System.out, useful for debugging
+     *
+     */
+    public void showNodes() {
+        for (int s = 0; s < this.numShards; s++) {
+            this.locks[s].lock();
+            try {
+                this.shards[s].showNodes();
+            } finally {
+                this.locks[s].unlock();
+            }
+        }
+    }
+
+    public void addDoc(double docSize) {
+        this.numDoc.incrementAndGet();
+        long bits;
+        long newBits;
+        do {
+            bits = this.numTerms.get();
+            newBits = Double.doubleToLongBits(Double.longBitsToDouble(bits) + docSize);
+        } while (!this.numTerms.compareAndSet(bits, newBits));
+    }
+
+    public void remove(String token) {
+    }
+
+    public double getFreqWord(String word) {
+        return getCount(word) / Double.longBitsToDouble(this.numTerms.get());
+    }
+
+    @Override
+    public void getDescription(StringBuilder arg0, int arg1) {
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ *    SketchChangeListener.java
+ *    Copyright (C) 2011 University of Waikato, Hamilton, New Zealand
+ *    @author Albert Bifet (abifet at cs dot waikato dot ac dot nz)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package moa.streams.twitter;
+
+/**
+ * Receives the changes detected by a sketch in the frequency of a token.
+ *
+ * Events are delivered synchronously from the thread updating the sketch,
+ * so implementations should be quick and must not modify the sketch.
+ *
+ */
+public interface SketchChangeListener {
+
+    /**
+     * Called when a change in the frequency of a token is detected.
+     *
+     * @param attIndex attribute index of the token
+     * @param token the token, shared with the sketch
+     * @param oldEstimate estimated frequency before the change
+     * @param newEstimate estimated frequency after the change
+     * @param numDoc number of the document where the change was detected
+     */
+    public void changeDetected(int attIndex, String token, double oldEstimate,
+            double newEstimate, int numDoc);
+}
@@ -0,0 +1,247 @@
+/*
+ *    SketchCheckpoint.java
+ *    Copyright (C) 2011 University of Waikato, Hamilton, New Zealand
+ *    @author Albert Bifet (abifet at cs dot waikato dot ac dot nz)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package moa.streams.twitter;
+
+import moa.core.InstancesHeader;
+import weka.core.Attribute;
+import weka.core.Instances;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Binary checkpoint of a sketch and of the attributes of the stream header
+ * built from it, to restart a stream without relearning its vocabulary.
+ *
+ * The file holds a magic number, a version, the class of the sketch, the
+ * names of the attributes after the class attribute, the number of
+ * documents seen by the filter, and the counters as written by
+ * MergeableSketch.write. The sketch is not thread-safe, and is only
+ * updated holding the lock of its filter. A background thread takes the
+ * snapshot in memory holding that lock, so the thread updating the sketch
+ * does not serialize it, and writes it to disk through a temporary file
+ * that is then renamed, so a crash never leaves a truncated checkpoint.
+ *
+ */
+public class SketchCheckpoint {
+
+    public static final int MAGIC = 0x534B4350; // "SKCP"
+
+    public static final int VERSION = 1;
+
+    protected File file;
+
+    protected ExecutorService executor;
+
+    /** Set while a snapshot waits to be written */
+    protected AtomicBoolean pending = new AtomicBoolean(false);
+
+    public SketchCheckpoint(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    public boolean exists() {
+        return this.file.exists() && this.file.length() > 0;
+    }
+
+    /**
+     * Check that the sketch of the filter can be checkpointed.
+     *
+     * @throws IllegalArgumentException if it is not a MergeableSketch, or
+     * a SpaceSavingAdwin without compactAdwin counters
+     */
+    public static void checkSketch(FilterTfIdf filter) {
+        getSketch(filter);
+    }
+
+    protected static MergeableSketch getSketch(FilterTfIdf filter) {
+        Sketch sketch = filter.getSketch();
+        if (!(sketch instanceof MergeableSketch)) {
+            throw new IllegalArgumentException("Checkpoints need a MergeableSketch, not "
+                    + sketch.getClass().getName());
+        }
+        if (sketch instanceof SpaceSavingAdwin
+                && !((SpaceSavingAdwin) sketch).compactAdwinOption.isSet()) {
+            throw new IllegalArgumentException(
+                    "Checkpoints of SpaceSavingAdwin need compactAdwin counters (-a)");
+        }
+        return (MergeableSketch) sketch;
+    }
+
+    /**
+     * Load the checkpoint into the filter, whose sketch must be of the same
+     * class, and make the header of its stream.
+     *
+     * @param header - header holding only the class attribute
+     * @return a header with the class attribute and the saved attributes
+     */
+    public InstancesHeader restore(FilterTfIdf filter, InstancesHeader header) throws IOException {
+        MergeableSketch sketch = getSketch(filter);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(this.file), 1 << 16));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(this.file + " is not a sketch checkpoint");
+            }
+            String className = in.readUTF();
+            if (!className.equals(sketch.getClass().getName())) {
+                throw new IOException(this.file + " holds a " + className
+                        + ", not a " + sketch.getClass().getName());
+            }
+            int numAttributes = in.readInt();
+            ArrayList<Attribute> attributes = new ArrayList<Attribute>(numAttributes);
+            attributes.add(header.classAttribute());
+            for (int i = 1; i < numAttributes; i++) {
+                attributes.add(new Attribute(in.readUTF()));
+            }
+            filter.setNumOfDocs(in.readDouble());
+            sketch.read(in);
+            InstancesHeader restored = new InstancesHeader(
+                    new Instances(header.relationName(), attributes, 0));
+            restored.setClassIndex(0);
+            return restored;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Serialize the sketch and the header attributes in memory, holding
+     * the lock of the filter.
+     */
+    public byte[] snapshot(FilterTfIdf filter, InstancesHeader header) throws IOException {
+        MergeableSketch sketch = getSketch(filter);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(sketch.getClass().getName());
+        out.writeInt(header.numAttributes());
+        for (int i = 1; i < header.numAttributes(); i++) {
+            out.writeUTF(header.attribute(i).name());
+        }
+        out.writeDouble(filter.getNumOfDocs());
+        sketch.write(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Write a snapshot to the checkpoint file.
+     */
+    protected void writeFile(byte[] data) throws IOException {
+        File tmp = new File(this.file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(data);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(this.file)) {
+            this.file.delete();
+            if (!tmp.renameTo(this.file)) {
+                throw new IOException("Failed renaming " + tmp + " to " + this.file);
+            }
+        }
+    }
+
+    /**
+     * Take a snapshot and write it in the background, once the thread
+     * updating the sketch releases the lock of the filter. The checkpoint
+     * is skipped if the previous one has not been written yet.
+     */
+    public void checkpointAsync(final FilterTfIdf filter, final InstancesHeader header) {
+        if (!this.pending.compareAndSet(false, true)) {
+            return;
+        }
+        if (this.executor == null) {
+            this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "sketch-checkpoint");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        this.executor.execute(new Runnable() {
+
+            public void run() {
+                try {
+                    byte[] data;
+                    synchronized (filter) {
+                        data = snapshot(filter, header);
+                    }
+                    writeFile(data);
+                } catch (IOException ex) {
+                    System.err.println("Failed writing checkpoint " + file + ": " + ex);
+                } finally {
+                    pending.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Wait for the background writes and write a last snapshot. Must be
+     * called without the lock of the filter, which the background
+     * snapshot takes.
+     */
+    public void checkpoint(FilterTfIdf filter, InstancesHeader header) throws IOException {
+        close();
+        byte[] data;
+        synchronized (filter) {
+            data = snapshot(filter, header);
+        }
+        writeFile(data);
+    }
+
+    /**
+     * Wait for the background writes to finish.
+     */
+    public void close() {
+        if (this.executor != null) {
+            this.executor.shutdown();
+            try {
+                this.executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            this.executor = null;
+        }
+    }
+}
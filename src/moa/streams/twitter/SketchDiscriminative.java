@@ -45,6 +45,9 @@ import java.util.Map;
  * 
  * Modified for TfIdf
  *
+ * A token is discriminative when its frequency differs between the two
+ * classes, so the stream must have exactly two class labels.
+ *
  */
 public class SketchDiscriminative extends AbstractOptionHandler implements Sketch {
 
@@ -125,7 +128,15 @@ public class SketchDiscriminative extends AbstractOptionHandler implements Sketc
 	public int addToken(String token, int freq){
 		return addToken(token,freq,0);
 	}
+	public int getNumClasses() {
+		return this.numClasses;
+	}
+
 	public int addToken(String token, int freq, int classIndex){ //insert()
+		if (classIndex < 0 || classIndex >= this.numClasses) {
+			throw new IllegalArgumentException("SketchDiscriminative compares "
+					+ this.numClasses + " classes, not class " + classIndex);
+		}
 		//Update sketch
 		if (getAttIndex(token) == -1) {
 			//New attribute
@@ -25,17 +25,29 @@ import moa.options.AbstractOptionHandler;
 import moa.core.ObjectRepository;
 import moa.tasks.TaskMonitor;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * Simple implementation of the so called SpaceSaving algorithm
  * for counting frequent items, actually String tokens in this version
  *
+ * Two sketches are merged as in Agarwal et al., Mergeable Summaries: a
+ * token missing from a full sketch is given the minimum count of that
+ * sketch, and the capacity largest sums are kept. Counts stay upper bounds
+ * and overestimate by at most (n1 + n2) / capacity.
+ *
  */
-public class SpaceSaving extends AbstractOptionHandler implements Sketch {
+public class SpaceSaving extends AbstractOptionHandler implements MergeableSketch, LookupSketch {
 
     private static final long serialVersionUID = 1L;
 
@@ -77,10 +89,17 @@ public class SpaceSaving extends AbstractOptionHandler implements Sketch {
         if (node == null) {
             return 0.0;
         } else {
-            return node.getCount();
+            return getCount(node);
         }
     }
 
+    /**
+     * Count of a node, as getCount gives it.
+     */
+    protected double getCount(Node node) {
+        return node.getCount();
+    }
+
     /**
      * Get the attribute index of the token specified.
      *
@@ -96,6 +115,16 @@ public class SpaceSaving extends AbstractOptionHandler implements Sketch {
         }
     }
 
+    public int lookup(String token, double[] counts, int i) {
+        Node node = _map.get(token);
+        if (node == null) {
+            counts[i] = 0.0;
+            return -1;
+        }
+        counts[i] = getCount(node);
+        return node.attrIndex;
+    }
+
     /**
      * Add a token to be counted.
      *
@@ -148,7 +177,7 @@ public class SpaceSaving extends AbstractOptionHandler implements Sketch {
         //Descend in the list order if count was reduced
         if (offset == node.index) {
             offset = node.index - 1;
-            while ((offset >= 0) && (node.count < _nodes.get(offset).getCount())) {
+            while ((offset >= 0) && (node.getCount() < _nodes.get(offset).getCount())) {
                 offset--;
                 isDescending = true;
             }
@@ -202,6 +231,140 @@ public class SpaceSaving extends AbstractOptionHandler implements Sketch {
         return new Node(token, index, freq);
     }
 
+    /**
+     * Count of a node, in the units used to merge and write sketches.
+     */
+    protected double getMergeCount(Node node) {
+        return node.getCount();
+    }
+
+    /**
+     * Set the count of a node from a merged or read count.
+     */
+    protected void setMergeCount(Node node, double count) {
+        node.count = count;
+    }
+
+    /**
+     * Minimum count of the sketch if it is full, 0 otherwise: an upper
+     * bound for the count of any token it does not hold.
+     */
+    protected double getMissingCount() {
+        if (_top < this.capacityOption.getValue() || _nodes.isEmpty()) {
+            return 0.0;
+        }
+        double min = Double.MAX_VALUE;
+        for (Node node : _nodes) {
+            min = Math.min(min, getMergeCount(node));
+        }
+        return min;
+    }
+
+    public void merge(Sketch other) {
+        if (other == null || other.getClass() != getClass()) {
+            throw new IllegalArgumentException("Cannot merge " + getClass().getName()
+                    + " with " + (other == null ? null : other.getClass().getName()));
+        }
+        SpaceSaving o = (SpaceSaving) other;
+        double missing = getMissingCount();
+        double otherMissing = o.getMissingCount();
+        Map<String, Double> merged = new LinkedHashMap<String, Double>();
+        for (Node node : _nodes) {
+            Node otherNode = o._map.get(node.token);
+            merged.put(node.token, getMergeCount(node)
+                    + (otherNode != null ? o.getMergeCount(otherNode) : otherMissing));
+        }
+        for (Node node : o._nodes) {
+            if (!merged.containsKey(node.token)) {
+                merged.put(node.token, o.getMergeCount(node) + missing);
+            }
+        }
+        this.numDoc += o.numDoc;
+        this.numTerms += o.numTerms;
+        keep(merged);
+    }
+
+    /**
+     * Replace the counters by the capacity largest of the given counts,
+     * recycling the nodes of the tokens that are not kept.
+     */
+    protected void keep(Map<String, Double> counts) {
+        final Map<String, Double> c = counts;
+        List<String> tokens = new ArrayList<String>(counts.keySet());
+        Collections.sort(tokens, new Comparator<String>() {
+
+            public int compare(String a, String b) {
+                return Double.compare(c.get(b), c.get(a));
+            }
+        });
+        if (tokens.size() > this.capacityOption.getValue()) {
+            tokens = tokens.subList(0, this.capacityOption.getValue());
+        }
+        Map<String, Double> kept = new HashMap<String, Double>();
+        for (String token : tokens) {
+            kept.put(token, counts.get(token));
+        }
+        ArrayList<Node> free = new ArrayList<Node>();
+        for (Node node : _nodes) {
+            if (!kept.containsKey(node.token)) {
+                _map.remove(node.token);
+                free.add(node);
+            }
+        }
+        for (String token : tokens) {
+            Node node = _map.get(token);
+            if (node == null) {
+                if (!free.isEmpty()) {
+                    node = free.remove(free.size() - 1);
+                    node.token = token;
+                } else {
+                    node = newNode(token, _top, 0);
+                    _nodes.add(node);
+                    _top++;
+                }
+                _map.put(token, node);
+            }
+            setMergeCount(node, kept.get(token));
+        }
+        Collections.sort(_nodes);
+        for (int i = 0; i < _nodes.size(); i++) {
+            _nodes.get(i).index = i;
+        }
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(this.capacityOption.getValue());
+        out.writeInt(this.numDoc);
+        out.writeDouble(this.numTerms);
+        out.writeInt(_nodes.size());
+        for (Node node : _nodes) {
+            out.writeUTF(node.token);
+            out.writeInt(node.attrIndex);
+            out.writeDouble(getMergeCount(node));
+        }
+    }
+
+    public void read(DataInput in) throws IOException {
+        this.capacityOption.setValue(in.readInt());
+        prepareForUseImpl(null, null);
+        this.numDoc = in.readInt();
+        this.numTerms = in.readDouble();
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            String token = in.readUTF();
+            Node node = newNode(token, i, 0);
+            node.attrIndex = in.readInt();
+            setMergeCount(node, in.readDouble());
+            _nodes.add(node);
+            _map.put(token, node);
+        }
+        _top = size;
+        Collections.sort(_nodes);
+        for (int i = 0; i < _nodes.size(); i++) {
+            _nodes.get(i).index = i;
+        }
+    }
+
     public void remove(String token) {
     }
 
@@ -21,62 +21,170 @@
 package moa.streams.twitter;
 
 import moa.classifiers.core.driftdetection.ADWIN;
+import moa.options.FlagOption;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collections;
 
 /**
  * Implementation of the so called SpaceSaving algorithm
  * for counting frequent items, actually String tokens in this version
  * using ADWINs.
  *
+ * Every counter receives one input per document, a zero when the token
+ * does not appear in it. Zeros are added lazily: each node remembers up
+ * to which document it is synchronized, and the missing zeros are
+ * appended at once when the node is touched or queried. Before the
+ * minimum is evicted every node is caught up and the list sorted again,
+ * once per document at most, so the same node is evicted as with the
+ * zeros added one document at a time. A change detected by a zero is
+ * reported with the document of that zero.
+ *
+ * With the compactAdwin option counters use CompactAdwin, which keeps its
+ * buckets in primitive arrays instead of a linked list of objects.
+ *
+ * Detected changes are reported to the SketchChangeListener set with
+ * setChangeListener.
+ *
+ * With compactAdwin counters the sketch is written with their windows,
+ * so a checkpoint restores their estimations. ADWIN keeps its buckets
+ * private, so the sketch cannot be written with plain ADWIN counters.
+ * ADWIN windows cannot be combined and merge is not supported.
  *
  */
 public class SpaceSavingAdwin extends SpaceSaving {
 
+    public FlagOption compactAdwinOption = new FlagOption("compactAdwin", 'a',
+            "Use compact array-backed ADWIN counters.");
+
     protected int numberOfChanges = 0;
 
-    protected String textChanges = "";
+    protected SketchChangeListener changeListener = null;
+
+    /** Document at which all the nodes were last synchronized and sorted */
+    protected int sortedDoc = 0;
 
     @Override
     protected Node newNode(String token, int index, int freq) {
-        return new NodeAdwin(token, index, freq);
+        NodeAdwin node;
+        if (this.compactAdwinOption.isSet()) {
+            node = new NodeCompactAdwin(token, index, freq);
+        } else {
+            node = new NodeAdwin(token, index, freq);
+        }
+        node.syncedDoc = this.numDoc;
+        return node;
     }
 
-    @Override
-    public void addDoc(double docSize) {
-        //Add zeros
-        //for (Node n : _nodes) {
-        for (int i = 0; i < _nodes.size(); i++) {
-            Node n = _nodes.get(i);
-            if (n != null) {
-                if (((NodeAdwin) n).getLastDoc() != this.numDoc) {
+    public void setChangeListener(SketchChangeListener listener) {
+        this.changeListener = listener;
+    }
+
+    public SketchChangeListener getChangeListener() {
+        return this.changeListener;
+    }
+
+    public int getNumberOfChanges() {
+        return this.numberOfChanges;
+    }
+
+    protected void changeDetected(Node n, double oldFreq, int doc) {
+        this.numberOfChanges++;
+        if (this.changeListener != null) {
+            this.changeListener.changeDetected(n.attrIndex, n.token, oldFreq, n.getCount(), doc);
+        }
+    }
+
+    /**
+     * Append the zeros of the documents this node has missed since it was
+     * last synchronized, the same inputs addDoc would have given it one
+     * document at a time.
+     */
+    protected void catchUp(NodeAdwin n) {
+        int pending = this.numDoc - n.syncedDoc;
+        if (pending > 0) {
+            int zeros = pending;
+            if (n.getLastDoc() == n.syncedDoc) {
+                // The node already had its input for that document
+                zeros--;
+            }
+            if (zeros > 0) {
+                // The zeros before the next check of the window cannot
+                // detect a change, and are appended at once
+                int doc = this.numDoc - zeros;
+                while (zeros > 0) {
+                    int count = Math.min(zeros, n.getInputsToCheck());
+                    if (count > 1) {
+                        n.addZeros(count - 1);
+                    }
+                    doc += count;
+                    zeros -= count;
                     double oldFreq = n.getCount();
-                    boolean change = n.addCount(0, this.numDoc);
-                    if (change) {
-                        this.numberOfChanges++;
-                        this.textChanges += n.getToken() + "," + oldFreq + "," + n.getCount() + " \n";
+                    if (n.addZeros(1)) {
+                        changeDetected(n, oldFreq, doc - 1);
                     }
-                    updatePosition(n);
                 }
+                n.lastDoc = this.numDoc - 1;
             }
+            n.syncedDoc = this.numDoc;
         }
-        if (this.numberOfChanges > 0.05 * _nodes.size()) {
-            //System.out.println("Change Detected "+this.numberOfChanges);
-            //System.out.println(this.textChanges);
-            this.textChanges = "";
-            this.numberOfChanges = 0;
+    }
+
+    /**
+     * Synchronize all the nodes and restore the order of the list, once per
+     * document at most.
+     */
+    protected void catchUpAll() {
+        if (this.sortedDoc != this.numDoc) {
+            for (Node n : _nodes) {
+                catchUp((NodeAdwin) n);
+            }
+            sortNodes();
+            this.sortedDoc = this.numDoc;
         }
-        this.numDoc++;
-        this.numTerms += docSize;
+    }
+
+    protected void sortNodes() {
+        Collections.sort(_nodes);
+        for (int i = 0; i < _nodes.size(); i++) {
+            _nodes.get(i).index = i;
+        }
+    }
+
+    @Override
+    protected void newToken(String token, int freq) {
+        // The minimum is only known once every node has its zeros
+        catchUpAll();
+        super.newToken(token, freq);
+    }
+
+    @Override
+    protected double getCount(Node node) {
+        catchUp((NodeAdwin) node);
+        return node.getCount();
+    }
 
+    @Override
+    public void showNodes() {
+        catchUpAll();
+        super.showNodes();
+    }
 
+    @Override
+    public void addDoc(double docSize) {
+        this.numDoc++;
+        this.numTerms += docSize;
     }
 
     @Override
     protected boolean addCount(Node n, int freq) {
+        catchUp((NodeAdwin) n);
         double oldFreq = n.getCount();
         boolean change = n.addCount((double) freq, this.numDoc);
         if (change) {
-            this.numberOfChanges++;
-            this.textChanges += n.getToken() + "," + oldFreq + "," + n.getCount() + " \n";
+            changeDetected(n, oldFreq, this.numDoc);
         }
         return change;
     }
@@ -87,6 +195,9 @@ public class SpaceSavingAdwin extends SpaceSaving {
 
         protected int lastDoc;
 
+        /** Next document whose zero has not been considered yet */
+        protected int syncedDoc;
+
         protected ADWIN adwinCounter;
 
         public int getLastDoc() {
@@ -104,6 +215,28 @@ public class SpaceSavingAdwin extends SpaceSaving {
             return ret;
         }
 
+        /**
+         * Append n zero inputs. ADWIN has no bulk append, so the zeros are
+         * added one at a time.
+         *
+         * @return true if a change was detected
+         */
+        protected boolean addZeros(int n) {
+            boolean ret = false;
+            for (int i = 0; i < n; i++) {
+                ret |= this.adwinCounter.setInput(0);
+            }
+            return ret;
+        }
+
+        /**
+         * Number of inputs until the counter may next detect a change. The
+         * clock of ADWIN is private, so any input may.
+         */
+        protected int getInputsToCheck() {
+            return 1;
+        }
+
         @Override
         protected void initCount(int freq) {
             this.adwinCounter = new ADWIN();
@@ -115,22 +248,125 @@ public class SpaceSavingAdwin extends SpaceSaving {
             return this.adwinCounter != null ? this.adwinCounter.getEstimation() : 0.0;
         }
 
-        public int compareTo(NodeAdwin other) {
-            if (this.adwinCounter.getEstimation() < other.adwinCounter.getEstimation()) {
-                return -1;
-            }
-            if (this.adwinCounter.getEstimation() > other.adwinCounter.getEstimation()) {
-                return 1;
-            }
-            return 0;
-        }
-
         @Override
         public String toString() {
             return "<Node " + index + " " + attrIndex + " " + token + " " + count + " >"; // "/" + min +
         }
     }
 
+    /**
+     * Node using a CompactAdwin counter. The counter is allocated once per
+     * node, and like the count of SpaceSaving it is inherited by the new
+     * token when the node is recycled in newToken.
+     */
+    static class NodeCompactAdwin extends NodeAdwin {
+
+        private static final long serialVersionUID = 1L;
+
+        protected CompactAdwin compactCounter;
+
+        NodeCompactAdwin(String token, int index, int freq) {
+            super(token, index, freq);
+        }
+
+        @Override
+        protected boolean addCount(double freq, int doc) {
+            boolean ret = this.compactCounter.setInput(freq);
+            this.lastDoc = doc;
+            return ret;
+        }
+
+        @Override
+        protected boolean addZeros(int n) {
+            return this.compactCounter.addZeros(n);
+        }
+
+        @Override
+        protected int getInputsToCheck() {
+            return this.compactCounter.getInputsToCheck();
+        }
+
+        @Override
+        protected void initCount(int freq) {
+            this.compactCounter = new CompactAdwin();
+            this.addCount(freq, 0);
+        }
+
+        @Override
+        protected double getCount() {
+            return this.compactCounter != null ? this.compactCounter.getEstimation() : 0.0;
+        }
+
+        protected void writeCounter(DataOutput out) throws IOException {
+            this.compactCounter.write(out);
+        }
+
+        protected void readCounter(DataInput in) throws IOException {
+            this.compactCounter.read(in);
+        }
+    }
+
+    /**
+     * ADWIN windows cannot be combined, so these sketches are not merged.
+     *
+     * @throws IllegalArgumentException always
+     */
+    @Override
+    public void merge(Sketch other) {
+        throw new IllegalArgumentException("ADWIN counters cannot be merged");
+    }
+
+    /**
+     * Write the counters as they are, with the documents each one has
+     * caught up to, so that the zeros still owed are added after read.
+     *
+     * @throws UnsupportedOperationException without compactAdwin counters
+     */
+    @Override
+    public void write(DataOutput out) throws IOException {
+        if (!this.compactAdwinOption.isSet()) {
+            throw new UnsupportedOperationException(
+                    "SpaceSavingAdwin is only written with compactAdwin counters");
+        }
+        out.writeInt(this.capacityOption.getValue());
+        out.writeInt(this.numDoc);
+        out.writeDouble(this.numTerms);
+        out.writeInt(this.numberOfChanges);
+        out.writeInt(_nodes.size());
+        for (Node n : _nodes) {
+            NodeCompactAdwin node = (NodeCompactAdwin) n;
+            out.writeUTF(node.token);
+            out.writeInt(node.attrIndex);
+            out.writeInt(node.lastDoc);
+            out.writeInt(node.syncedDoc);
+            node.writeCounter(out);
+        }
+    }
+
+    @Override
+    public void read(DataInput in) throws IOException {
+        this.capacityOption.setValue(in.readInt());
+        this.compactAdwinOption.set();
+        prepareForUseImpl(null, null);
+        this.numDoc = in.readInt();
+        this.numTerms = in.readDouble();
+        this.numberOfChanges = in.readInt();
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            String token = in.readUTF();
+            NodeCompactAdwin node = (NodeCompactAdwin) newNode(token, i, 0);
+            node.attrIndex = in.readInt();
+            node.lastDoc = in.readInt();
+            node.syncedDoc = in.readInt();
+            node.readCounter(in);
+            _nodes.add(node);
+            _map.put(token, node);
+        }
+        _top = size;
+        sortNodes();
+        this.sortedDoc = -1;
+    }
+
     @Override
     public double getFreqWord(String word) {
         return getCount(word) / (this.numTerms / (double) this.numDoc);
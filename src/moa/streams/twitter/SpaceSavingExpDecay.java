@@ -20,47 +20,86 @@
  */
 package moa.streams.twitter;
 
+import moa.core.ObjectRepository;
+import moa.tasks.TaskMonitor;
+
 /**
  * Implementation of the so called SpaceSaving algorithm
  * for counting frequent items, actually String tokens in this version
  * using exponential decays. Cormode et al.
  *
+ * Counts are kept with forward decay relative to a landmark document that
+ * is moved forward periodically, so they never overflow.
+ *
+ * Merged and written counts are the decayed counts at the current
+ * document, so merged sketches should have seen the same number of
+ * documents.
+ *
  */
 public class SpaceSavingExpDecay extends SpaceSaving {
 
     protected double lambda = 0.01;
 
+    protected ForwardDecay forwardDecay;
+
     public void setLambda(double l) {
         this.lambda = l;
+        this.forwardDecay = new ForwardDecay(Math.exp(-l));
     }
 
     public double getLambda() {
         return this.lambda;
     }
 
+    @Override
+    protected void prepareForUseImpl(TaskMonitor arg0, ObjectRepository arg1) {
+        super.prepareForUseImpl(arg0, arg1);
+        this.forwardDecay = new ForwardDecay(Math.exp(-this.lambda));
+    }
+
     /**
-     * Retrieve the (estimated, upper-bound) count for any token
-     *
-     * @param token
-     * @return count (or 0 if not being counted currently, i.e. not frequent enough)
+     * Count of a node, scaled back from the weight of the current time.
      */
     @Override
-    public double getCount(String token) {
-        Node node = _map.get(token);
-        if (node == null) {
-            return 0.0;
-        } else {
-            return node.count * Math.exp(-lambda * this.numDoc);
-        }
+    protected double getCount(Node node) {
+        return node.count / this.forwardDecay.weight();
     }
 
     @Override
     protected boolean addCount(Node node, int freq) {
-        double c = node.count;
-        node.addCount(((double) freq) * Math.exp(lambda * (double) this.numDoc), this.numDoc);
+        node.addCount(((double) freq) * this.forwardDecay.weight(), this.numDoc);
         return false;
     }
 
+    @Override
+    protected Node newNode(String token, int index, int freq) {
+        Node node = super.newNode(token, index, freq);
+        node.count = ((double) freq) * this.forwardDecay.weight();
+        return node;
+    }
+
+    @Override
+    protected double getMergeCount(Node node) {
+        return node.count / this.forwardDecay.weight();
+    }
+
+    @Override
+    protected void setMergeCount(Node node, double count) {
+        node.count = count * this.forwardDecay.weight();
+    }
+
+    @Override
+    public void addDoc(double docSize) {
+        super.addDoc(docSize);
+        if (this.forwardDecay.advance()) {
+            // New landmark: scaling all the counters keeps their order
+            double scale = this.forwardDecay.renormalize();
+            for (Node node : _nodes) {
+                node.count *= scale;
+            }
+        }
+    }
+
     @Override
     public double getFreqWord(String word) {
         return getCount(word); 
@@ -0,0 +1,330 @@
+/*
+ *    StreamSummary.java
+ *    Copyright (C) 2011 University of Waikato, Hamilton, New Zealand
+ *    @author Albert Bifet (abifet at cs dot waikato dot ac dot nz)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package moa.streams.twitter;
+
+import moa.options.IntOption;
+import moa.options.AbstractOptionHandler;
+import moa.core.ObjectRepository;
+import moa.tasks.TaskMonitor;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Implementation of the SpaceSaving algorithm using the Stream-Summary
+ * data structure of Metwally et al. Counters with the same count share a
+ * bucket, and buckets are kept in a doubly linked list in increasing order
+ * of count, so incrementing a token, evicting the minimum and reading a
+ * count take constant time instead of the linear time of SpaceSaving.
+ *
+ */
+public class StreamSummary extends AbstractOptionHandler implements LookupSketch {
+
+    private static final long serialVersionUID = 1L;
+
+    public IntOption capacityOption = new IntOption("capacity", 'c', "Number of attributes to use", 10000);
+
+    protected int _top = 0;
+
+    protected Map<String, Node> _map = null;
+
+    /** Bucket holding the smallest count */
+    protected Bucket _min = null;
+
+    /** Bucket holding the largest count */
+    protected Bucket _max = null;
+
+    protected int numDoc = 0;
+
+    protected double numTerms = 0;
+
+    /**
+     * Initialise a set of counters for String tokens
+     *
+     */
+    @Override
+    protected void prepareForUseImpl(TaskMonitor arg0, ObjectRepository arg1) {
+        _top = 0;
+        _map = new HashMap<String, Node>();
+        _min = null;
+        _max = null;
+    }
+
+    public int addToken(String token, int freq, int classIndex) {
+        return addToken(token, freq);
+    }
+
+    /**
+     * Retrieve the (estimated, upper-bound) count for any token
+     *
+     * @param token
+     * @return count (or 0 if not being counted currently, i.e. not frequent enough)
+     */
+    public double getCount(String token) {
+        Node node = _map.get(token);
+        if (node == null) {
+            return 0.0;
+        } else {
+            return node.bucket.count;
+        }
+    }
+
+    /**
+     * Get the attribute index of the token specified.
+     *
+     * @param token
+     * @return
+     */
+    public int getAttIndex(String token) {
+        Node node = _map.get(token);
+        if (node != null) {
+            return node.attrIndex;
+        } else {
+            return -1;
+        }
+    }
+
+    public int lookup(String token, double[] counts, int i) {
+        Node node = _map.get(token);
+        if (node == null) {
+            counts[i] = 0.0;
+            return -1;
+        }
+        counts[i] = node.bucket.count;
+        return node.attrIndex;
+    }
+
+    /**
+     * Add a token to be counted.
+     *
+     * @param token
+     * @param freq
+     * @return attributeIndex which is useful for constructing Instance objects
+     */
+    public int addToken(String token, int freq) {
+        Node node = _map.get(token);
+        if (node == null) {
+            if (_top < this.capacityOption.getValue()) {
+                node = fill(token, freq);
+            } else {
+                node = newToken(token, freq);
+            }
+        } else {
+            increment(node, freq);
+        }
+        return node.attrIndex;
+    }
+
+    protected Node fill(String token, int freq) {
+        Node node = new Node(token, _top);
+        _map.put(token, node);
+        attach(node, freq, null);
+        _top++;
+        return node;
+    }
+
+    /**
+     * Replace the token with the smallest count by the new one. The new token
+     * inherits the count and the attribute index of the evicted token.
+     */
+    protected Node newToken(String token, int freq) {
+        Node node = _min.last;
+        _map.remove(node.token);
+        _map.put(token, node);
+        node.token = token;
+        increment(node, freq);
+        return node;
+    }
+
+    /**
+     * Move a node to the bucket of its new count. Buckets are scanned
+     * forward from the current one, which for the usual unit increments
+     * means looking at one neighbour at most.
+     */
+    protected void increment(Node node, int freq) {
+        Bucket from = node.bucket;
+        double count = from.count + freq;
+        Bucket prev = from;
+        if (freq < 0) {
+            prev = from.prev;
+            while (prev != null && prev.count > count) {
+                prev = prev.prev;
+            }
+        } else {
+            while (prev.next != null && prev.next.count <= count) {
+                prev = prev.next;
+            }
+        }
+        detach(node);
+        if (from.first == null && prev == from) {
+            // The old bucket was emptied and unlinked, insert after its predecessor
+            prev = from.prev;
+        }
+        attach(node, count, prev);
+    }
+
+    /**
+     * Insert the node in the bucket with the given count, creating it just
+     * after <code>prev</code> (or as the first bucket if null) if needed.
+     */
+    protected void attach(Node node, double count, Bucket prev) {
+        if (prev == null) {
+            Bucket next = _min;
+            while (next != null && next.count <= count) {
+                prev = next;
+                next = next.next;
+            }
+        }
+        Bucket bucket;
+        if (prev != null && prev.count == count) {
+            bucket = prev;
+        } else {
+            bucket = new Bucket(count);
+            bucket.prev = prev;
+            bucket.next = (prev == null) ? _min : prev.next;
+            if (bucket.next != null) {
+                bucket.next.prev = bucket;
+            } else {
+                _max = bucket;
+            }
+            if (prev != null) {
+                prev.next = bucket;
+            } else {
+                _min = bucket;
+            }
+        }
+        // New nodes go to the head of the bucket, the oldest one is at the
+        // tail and is the first to be evicted
+        node.bucket = bucket;
+        node.prev = null;
+        node.next = bucket.first;
+        if (bucket.first != null) {
+            bucket.first.prev = node;
+        } else {
+            bucket.last = node;
+        }
+        bucket.first = node;
+    }
+
+    protected void detach(Node node) {
+        Bucket bucket = node.bucket;
+        if (node.prev != null) {
+            node.prev.next = node.next;
+        } else {
+            bucket.first = node.next;
+        }
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        } else {
+            bucket.last = node.prev;
+        }
+        node.prev = null;
+        node.next = null;
+        node.bucket = null;
+        if (bucket.first == null) {
+            if (bucket.prev != null) {
+                bucket.prev.next = bucket.next;
+            } else {
+                _min = bucket.next;
+            }
+            if (bucket.next != null) {
+                bucket.next.prev = bucket.prev;
+            } else {
+                _max = bucket.prev;
+            }
+        }
+    }
+
+    /**
+     * Print all nodes to System.out, useful for debugging
+     *
+     */
+    public void showNodes() {
+        for (Bucket bucket = _min; bucket != null; bucket = bucket.next) {
+            for (Node node = bucket.last; node != null; node = node.prev) {
+                System.out.println(node);
+            }
+        }
+    }
+
+    public void addDoc(double docSize) {
+        this.numDoc++;
+        this.numTerms += docSize;
+    }
+
+    public void remove(String token) {
+    }
+
+    public double getFreqWord(String word) {
+        return getCount(word) / this.numTerms;
+    }
+
+    /**
+     * All the counters sharing the same count, kept in a doubly linked list.
+     */
+    static class Bucket implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        double count;
+
+        Bucket prev;
+
+        Bucket next;
+
+        Node first;
+
+        Node last;
+
+        Bucket(double count) {
+            this.count = count;
+        }
+    }
+
+    static class Node implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        int attrIndex;
+
+        String token;
+
+        Bucket bucket;
+
+        Node prev;
+
+        Node next;
+
+        Node(String token, int attrIndex) {
+            this.attrIndex = attrIndex;
+            this.token = token;
+        }
+
+        @Override
+        public String toString() {
+            return "" + attrIndex + "," + bucket.count + "," + token;
+        }
+    }
+
+    @Override
+    public void getDescription(StringBuilder arg0, int arg1) {
+    }
+}
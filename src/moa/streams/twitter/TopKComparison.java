@@ -0,0 +1,165 @@
+/*
+ *    TopKComparison.java
+ *    Copyright (C) 2011 University of Waikato, Hamilton, New Zealand
+ *    @author Albert Bifet (abifet at cs dot waikato dot ac dot nz)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package moa.streams.twitter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the top-k accuracy of HeavyKeeper, SpaceSaving and LRUSketch for
+ * the same memory, on the synthetic Zipf stream of TwitterStreamFileReader.
+ *
+ * For each memory budget it prints the precision of the k tokens with the
+ * largest estimations against the exact top-k, the average relative error
+ * of their estimations, and the number of attribute index changes, i.e. of
+ * header renames in FilterTfIdf. The stream is stopped before the generator
+ * swaps word frequencies, so that the exact top-k is well defined.
+ * LRUSketch estimates decayed frequencies rather than counts, so only its
+ * precision and renames are comparable.
+ *
+ */
+public class TopKComparison {
+
+    /** Approximate retained bytes per counter, measured on a 64-bit JVM */
+    public static final int SPACE_SAVING_COUNTER_BYTES = 78;
+
+    public static final int LRU_SKETCH_COUNTER_BYTES = 85;
+
+    /** Bytes of a HeavyKeeper bucket, and of a top-k entry with its map entry */
+    public static final int HEAVY_KEEPER_BUCKET_BYTES = 8;
+
+    public static final int HEAVY_KEEPER_TOP_BYTES = 64;
+
+    protected int k;
+
+    protected int numTweets;
+
+    public TopKComparison(int k, int numTweets) {
+        this.k = k;
+        this.numTweets = numTweets;
+    }
+
+    protected List<String> topK(final Map<String, Double> counts) {
+        List<String> words = new ArrayList<String>(counts.keySet());
+        Collections.sort(words, new Comparator<String>() {
+
+            public int compare(String a, String b) {
+                return Double.compare(counts.get(b), counts.get(a));
+            }
+        });
+        return words.subList(0, Math.min(this.k, words.size()));
+    }
+
+    /**
+     * Feed the stream to the sketches, document by document as FilterTfIdf
+     * does, and print the accuracy of each one.
+     */
+    public void compare(String[] names, Sketch[] sketches) {
+        TwitterStreamFileReader reader = new TwitterStreamFileReader();
+        reader.initStream();
+        Map<String, Double> exact = new HashMap<String, Double>();
+        Map<String, Integer> tokensInDoc = new HashMap<String, Integer>();
+        int[] renames = new int[sketches.length];
+        List<Map<Integer, String>> owners = new ArrayList<Map<Integer, String>>();
+        for (int i = 0; i < sketches.length; i++) {
+            owners.add(new HashMap<Integer, String>());
+        }
+        for (int t = 0; t < this.numTweets; t++) {
+            String message = reader.getAndRemove(0).getMessage();
+            tokensInDoc.clear();
+            int docSize = 0;
+            for (String token : message.split(" ")) {
+                if (!token.equals("")) {
+                    Integer freq = tokensInDoc.get(token);
+                    tokensInDoc.put(token, (freq == null) ? 1 : freq + 1);
+                    docSize++;
+                }
+            }
+            for (Map.Entry<String, Integer> e : tokensInDoc.entrySet()) {
+                Double count = exact.get(e.getKey());
+                exact.put(e.getKey(), (count == null ? 0 : count) + e.getValue());
+                for (int i = 0; i < sketches.length; i++) {
+                    int index = sketches[i].addToken(e.getKey(), e.getValue());
+                    if (index != -1) {
+                        String owner = owners.get(i).put(index, e.getKey());
+                        if (owner != null && !owner.equals(e.getKey())) {
+                            renames[i]++;
+                        }
+                    }
+                }
+            }
+            for (Sketch sketch : sketches) {
+                sketch.addDoc(docSize);
+            }
+        }
+
+        List<String> exactTop = topK(exact);
+        for (int i = 0; i < sketches.length; i++) {
+            Map<String, Double> estimated = new HashMap<String, Double>();
+            for (String word : exact.keySet()) {
+                estimated.put(word, sketches[i].getCount(word));
+            }
+            List<String> top = topK(estimated);
+            int hits = 0;
+            double error = 0;
+            for (String word : top) {
+                if (exactTop.contains(word)) {
+                    hits++;
+                }
+                error += Math.abs(estimated.get(word) - exact.get(word)) / exact.get(word);
+            }
+            System.out.println(names[i] + ": precision " + ((double) hits / this.k)
+                    + ", ARE " + (error / top.size()) + ", attribute renames " + renames[i]);
+        }
+    }
+
+    public static void main(String[] args) {
+        int k = 100;
+        TopKComparison comparison = new TopKComparison(k, 45000);
+        int[] budgets = {4 * 1024, 8 * 1024, 16 * 1024, 64 * 1024};
+        for (int bytes : budgets) {
+            System.out.println("Memory " + bytes + " bytes, k = " + k);
+
+            SpaceSaving spaceSaving = new SpaceSaving();
+            spaceSaving.capacityOption.setValue(bytes / SPACE_SAVING_COUNTER_BYTES);
+            spaceSaving.prepareForUse();
+
+            LRUSketch lruSketch = new LRUSketch();
+            lruSketch.capacityOption.setValue(bytes / LRU_SKETCH_COUNTER_BYTES);
+            lruSketch.lambdaOption.setValue(.0001);
+            lruSketch.prepareForUse();
+
+            HeavyKeeper heavyKeeper = new HeavyKeeper();
+            int topK = Math.min(k, bytes / (2 * HEAVY_KEEPER_TOP_BYTES));
+            heavyKeeper.capacityOption.setValue(topK);
+            heavyKeeper.widthOption.setValue(Math.max(1,
+                    (bytes - topK * HEAVY_KEEPER_TOP_BYTES) / (2 * HEAVY_KEEPER_BUCKET_BYTES)));
+            heavyKeeper.depthOption.setValue(2);
+            heavyKeeper.prepareForUse();
+
+            comparison.compare(new String[]{"SpaceSaving", "LRUSketch", "HeavyKeeper"},
+                    new Sketch[]{spaceSaving, lruSketch, heavyKeeper});
+        }
+    }
+}
@@ -27,8 +27,6 @@
 package moa.streams.twitter;
 
 import java.util.ArrayList;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import com.cybozu.labs.langdetect.LangDetectException;
 import com.cybozu.labs.langdetect.Language;
@@ -37,7 +35,7 @@ public class Tweet {
 
     protected String message;			//The message of the Tweet
 
-    protected String type = "N";		        //Happy or Sad Tweet (H or S)
+    protected String type = "N";		        //Label of the emoticons of the Tweet (eg. H or S)
 
     private String language = "";			//Detected language
 
@@ -47,9 +45,30 @@ public class Tweet {
 
     protected Double minimumProb = 0.95;	//The min probability required for predicted language
 
-    private static LanguageDetect languageDetect;
+    private LanguageDetect languageDetect;
+
+    private TweetCleaner cleaner;
+
+    private LanguagePreFilter languagePreFilter;
+
+    protected String messageLanguage = "";	//Language the message was accepted for
+
+    protected double confidence = Double.NaN;	//Its probability, if the detector was asked
 
     public Tweet() {
+        this(EmoticonDictionary.getDefault());
+    }
+
+    public Tweet(EmoticonDictionary dictionary) {
+        this.cleaner = new TweetCleaner(dictionary);
+    }
+
+    public void setEmoticonDictionary(EmoticonDictionary dictionary) {
+        this.cleaner = new TweetCleaner(dictionary);
+    }
+
+    public EmoticonDictionary getEmoticonDictionary() {
+        return this.cleaner.getDictionary();
     }
 
     /**
@@ -59,45 +78,69 @@ public class Tweet {
      * @param l - The setting to check for language, true will filter out by language.
      */
     public void cleanTweets(String m, String languageFilter) {
-        m = m.replaceAll("[\\n\\r]", "");		//removes new lines.
-        m = m.replaceAll("[^a-z\\sA-Z!0-9#@()\\[\\]\\{\\}:-=;]", "");
-        m = m.replaceAll("\\s{2,}", "");		//removes white space of 2 or more.
-
-        //Filters the emoticon out and classifies it
-        m = getFilteredTweet(m);
-        m = m.replaceAll("[^a-z\\sA-Z#@]", "");
-
-        //take out all Twitter specific info, ie. @users and #tags
-        Pattern p = Pattern.compile("\\s@.+?\\s|^@.+?\\s|\\s#.+?\\s|^#.+?\\s");
-
-        StringBuffer sb = new StringBuffer();
-
-        Matcher match = p.matcher(m);
-        boolean result = match.find();
-
-        while (result) {
-            match.appendReplacement(sb, " ");
-            result = match.find();
-        }
+        String text = m;
+        //Removes the unneeded symbols, the emoticon that classifies it,
+        //and the Twitter specific info, ie. @users and #tags
+        m = this.cleaner.clean(m);
+        this.type = this.cleaner.getType();
+        this.message = filterLanguage(text, m, languageFilter);
+    }
 
-        match.appendTail(sb);
-        m = sb.toString();
+    /**
+     * Detect the language of a cleaned message if asked.
+     * @param text - The text of the Tweet before cleaning.
+     * @param m - The cleaned message.
+     * @param languageFilter - The language to keep, or "" to keep all messages.
+     * @return - The message, or "" if it is not in the language.
+     */
+    public String filterLanguage(String text, String m, String languageFilter) {
+        this.messageLanguage = languageFilter;
+        this.confidence = Double.NaN;
 
         if (languageFilter.equals("")) {
-            this.message = m;
-        } else {
+            return m;
+        }
+        if (isBlank(m)) {
+            return "";
+        }
+        //Cheap tests first, the detector only for the undecided tweets
+        if (this.languagePreFilter == null || !this.languagePreFilter.getLanguage().equals(languageFilter)) {
+            this.languagePreFilter = LanguagePreFilter.getInstance(languageFilter);
+        }
+        if (this.languagePreFilter.checkScript(text) == LanguagePreFilter.REJECT) {
+            return "";
+        }
+        int decision = this.languagePreFilter.checkStopwords(m);
+        if (decision == LanguagePreFilter.ACCEPT) {
+            return m;
+        } else if (decision == LanguagePreFilter.UNDECIDED) {
             detectLanguage(m);
-            String temp = m.replaceAll("\\s+", "");	//If the message is nothing but whitespace
-            this.message = "";
-            if (!m.equals("") && !temp.equals("")) { //&& !type.equals("N")){
-                if ((this.language.equals(languageFilter))) {// || (language.equals("es")) || (language.equals("pt")))
-                    if (prob > minimumProb) {
-                        this.message = m;
-                    } 
-
+            if ((this.language.equals(languageFilter))) {// || (language.equals("es")) || (language.equals("pt")))
+                if (prob > minimumProb) {
+                    this.confidence = prob;
+                    return m;
                 }
             }
         }
+        return "";
+    }
+
+    /**
+     * Counters of the tweets decided by each stage of the language
+     * filter, shared by all the tweets filtered for that language, or null
+     * if no tweet was filtered by language.
+     */
+    public LanguagePreFilter getLanguagePreFilter() {
+        return this.languagePreFilter;
+    }
+
+    private static boolean isBlank(String m) {
+        for (int i = 0; i < m.length(); i++) {
+            if (!Character.isWhitespace(m.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
     }
 
     private void detectLanguage(String m) {
@@ -105,8 +148,7 @@ public class Tweet {
         if (m.length() > 0) {
             try {
                 if (languageDetect == null) {
-                    languageDetect = new LanguageDetect();
-                    languageDetect.init("lib/profiles");
+                    languageDetect = LanguageDetect.getInstance();
                 }
 
                 detect = languageDetect.detectLangs(m);
@@ -136,42 +178,47 @@ public class Tweet {
         return type;
     }
 
+    /**
+     * Probability of the language of the last message filtered, or NaN if
+     * the detector was not asked.
+     */
+    public double getConfidence() {
+        return this.confidence;
+    }
+
+    /**
+     * The message and type of the last tweet cleaned, with the language
+     * it was accepted for.
+     *
+     * @param timestamp - the time the tweet was created, in milliseconds.
+     */
+    public LabeledTweet getLabeledTweet(long timestamp) {
+        return new LabeledTweet(this.message, this.type, this.messageLanguage,
+                this.confidence, timestamp);
+    }
+
     /**
      * Returns the message passed to the class after it has had the emoticon removed.
      * @param s - The message to search through.
      * @return - The message with removed emoticon.
      */
     public String getFilteredTweet(String s) {
-        boolean result;
-
-        Pattern pHappy = Pattern.compile("=\\)|=D|:\\)|=P|:P|:\\]|=\\]|;\\)|:\\}|:p|=p|: P|:D|=d");
-        Pattern pSad = Pattern.compile("=\\(|:-\\(|:\\(|:\\{|:\\[|=\\[|D:|=\\{");
-
-        StringBuffer sb = new StringBuffer();
-
-        Matcher m = pHappy.matcher(s);
-        result = m.find();
-        this.type = "N";
-
-        while (result) {
-            m.appendReplacement(sb, "");
-            this.type = "H";
-            result = m.find();
-        }
-
-        if (this.type.equals("H")) {
-            m.appendTail(sb);
-        } else {
-            m = pSad.matcher(s);
-            result = m.find();
-
-            while (result) {
-                m.appendReplacement(sb, "");
-                this.type = "S";
-                result = m.find();
+        EmoticonDictionary dictionary = this.cleaner.getDictionary();
+        char[] chars = s.toCharArray();
+        int[] match = new int[2];
+        StringBuilder sb = new StringBuilder(chars.length);
+        int label = -1;
+        int i = 0;
+        int emoticon;
+        while ((emoticon = dictionary.find(chars, i, chars.length, match)) != -1) {
+            sb.append(chars, i, emoticon - i);
+            if (label == -1 || match[1] < label) {
+                label = match[1];
             }
-            m.appendTail(sb);
+            i = emoticon + match[0];
         }
+        sb.append(chars, i, chars.length - i);
+        this.type = (label == -1) ? EmoticonDictionary.NO_LABEL : dictionary.getLabel(label);
         return sb.toString();
     }
 }
@@ -0,0 +1,197 @@
+/*
+ *    TweetCleaner.java
+ *    Copyright (C) 2011 University of Waikato, Hamilton, New Zealand
+ *    @author Albert Bifet (abifet at cs dot waikato dot ac dot nz)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package moa.streams.twitter;
+
+/**
+ * Table-driven cleaner of the messages of tweets, which
+ *
+ * 1. removes new lines,
+ * 2. keeps only [a-z\sA-Z!0-9#@()\[\]\{\}:-=;] (where :-= is the range : to =)
+ *    and the characters of the emoticons,
+ * 3. removes runs of two or more white spaces,
+ * 4. removes the emoticons of an EmoticonDictionary, and labels the
+ *    message with the label of highest priority among them,
+ * 5. keeps only [a-z\sA-Z#@],
+ * 6. replaces every @user and #tag, with the white space before and after
+ *    it, by a white space.
+ *
+ * Steps 1 to 3 are done in a first scan, steps 4 to 6 in a second one over
+ * the same char array. The array is reused from message to message, so a
+ * cleaner must not be shared between threads.
+ *
+ */
+public class TweetCleaner {
+
+    /** Characters kept by step 2 */
+    protected static final byte KEEP = 1;
+
+    /** Characters kept by step 5 */
+    protected static final byte WORD = 2;
+
+    /** White spaces, as matched by \s */
+    protected static final byte SPACE = 4;
+
+    protected static final byte[] TABLE = new byte[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            TABLE[c] |= KEEP | WORD;
+            TABLE[Character.toUpperCase(c)] |= KEEP | WORD;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            TABLE[c] |= KEEP;
+        }
+        for (char c : " \t\n\u000B\f\r".toCharArray()) {
+            TABLE[c] |= KEEP | WORD | SPACE;
+        }
+        for (char c : "#@".toCharArray()) {
+            TABLE[c] |= KEEP | WORD;
+        }
+        for (char c : "!()[]{}:;<=".toCharArray()) {
+            TABLE[c] |= KEEP;
+        }
+    }
+
+    protected EmoticonDictionary dictionary;
+
+    protected char[] buffer = new char[256];
+
+    protected int[] match = new int[2];
+
+    protected String type = EmoticonDictionary.NO_LABEL;
+
+    public TweetCleaner() {
+        this(EmoticonDictionary.getDefault());
+    }
+
+    public TweetCleaner(EmoticonDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    public EmoticonDictionary getDictionary() {
+        return this.dictionary;
+    }
+
+    protected static boolean is(char c, byte flag) {
+        return c < 128 && (TABLE[c] & flag) != 0;
+    }
+
+    /**
+     * Clean a message.
+     *
+     * @param m the message
+     * @return the cleaned message
+     */
+    public String clean(String m) {
+        int length = m.length();
+        if (this.buffer.length < length) {
+            this.buffer = new char[Math.max(length, 2 * this.buffer.length)];
+        }
+        char[] s = this.buffer;
+
+        // Steps 1 to 3
+        int n = 0;
+        int runStart = 0;
+        int runLength = 0;
+        for (int i = 0; i < length; i++) {
+            char c = m.charAt(i);
+            if (c == '\n' || c == '\r'
+                    || !(is(c, KEEP) || this.dictionary.isEmoticonChar(c))) {
+                continue;
+            }
+            if (is(c, SPACE)) {
+                if (runLength == 0) {
+                    runStart = n;
+                }
+                runLength++;
+            } else {
+                if (runLength >= 2) {
+                    n = runStart;
+                }
+                runLength = 0;
+            }
+            s[n++] = c;
+        }
+        if (runLength >= 2) {
+            n = runStart;
+        }
+
+        // Steps 4 to 6. A tag starts at a white space followed by @ or #,
+        // or at a @ or # starting the message, and ends at the first white
+        // space after at least one more character.
+        int w = 0;
+        boolean first = true;
+        boolean afterSpace = false;
+        int tagStart = -1;
+        int tagLength = 0;
+        int tagMinLength = 0;
+        int label = -1;
+        int emoticon = this.dictionary.find(s, 0, n, this.match);
+        int i = 0;
+        while (i < n) {
+            if (i == emoticon) {
+                if (label == -1 || this.match[1] < label) {
+                    label = this.match[1];
+                }
+                i += this.match[0];
+                emoticon = this.dictionary.find(s, i, n, this.match);
+                continue;
+            }
+            char c = s[i++];
+            if (!is(c, WORD)) {
+                continue;
+            }
+            boolean space = is(c, SPACE);
+            s[w++] = c;
+            if (tagStart >= 0) {
+                tagLength++;
+                if (space && tagLength >= tagMinLength) {
+                    w = tagStart;
+                    s[w++] = ' ';
+                    tagStart = -1;
+                }
+                afterSpace = false;
+            } else if (c == '@' || c == '#') {
+                if (afterSpace) {
+                    tagStart = w - 2;
+                    tagLength = 2;
+                    tagMinLength = 4;
+                } else if (first) {
+                    tagStart = w - 1;
+                    tagLength = 1;
+                    tagMinLength = 3;
+                }
+                afterSpace = false;
+            } else {
+                afterSpace = space;
+            }
+            first = false;
+        }
+        this.type = (label == -1) ? EmoticonDictionary.NO_LABEL : this.dictionary.getLabel(label);
+        return new String(s, 0, w);
+    }
+
+    /**
+     * Label of the last message cleaned, or N if it had no emoticon.
+     */
+    public String getType() {
+        return this.type;
+    }
+}
@@ -0,0 +1,622 @@
+/*
+ *    TweetPipeline.java
+ *    Copyright (C) 2011 University of Waikato, Hamilton, New Zealand
+ *    @author Albert Bifet (abifet at cs dot waikato dot ac dot nz)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package moa.streams.twitter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import moa.core.InstancesHeader;
+import weka.core.Attribute;
+import weka.core.Instance;
+
+/**
+ * Preprocessing of tweets in stages, each one with its threads and the
+ * bounded queue feeding it, as an alternative to cleaning and filtering
+ * each tweet inline in TweetReader:
+ *
+ * source     takes the raw tweets from the stream, or the lines of a file,
+ * clean      removes the unneeded symbols and labels the emoticons, in the
+ *            one scan of TweetCleaner,
+ * language   filters by language,
+ * tokenize   counts the terms of the message,
+ * sketch     adds the terms to the sketch, on a single thread,
+ * vectorize  makes the tf-idf instance.
+ *
+ * Each tweet gets a sequence number from the source. The sketch stage
+ * takes the tweets in that order, keeping the ones arriving early aside,
+ * so the sketch and the instances are the same as inline whatever the
+ * number of threads, and poll hands the instances in that order too.
+ * Tweets rejected by a stage still go through the next ones, to keep the
+ * sequence without gaps.
+ *
+ * The sketch stage adds the attributes to its own copy of the header;
+ * the changes are kept with each tweet and made to the header of the
+ * stream by the thread calling poll, so the learners never see the header
+ * changing under them. The checkpoints are taken by the sketch stage from
+ * its copy, which always matches the sketch.
+ *
+ * Each stage counts the tweets it processed and the time its threads
+ * were busy, and getReport gives them with the depth of its queue.
+ *
+ * If a stage fails, the pipeline stops and poll throws the failure.
+ *
+ */
+public class TweetPipeline {
+
+    public static final int SOURCE = 0;
+
+    public static final int CLEAN = 1;
+
+    public static final int LANGUAGE = 2;
+
+    public static final int TOKENIZE = 3;
+
+    public static final int SKETCH = 4;
+
+    public static final int VECTORIZE = 5;
+
+    public static final String[] STAGE_NAMES = {"source", "clean", "language", "tokenize",
+        "sketch", "vectorize"};
+
+    /**
+     * A tweet going through the stages, with the results of each one.
+     */
+    public static class Item {
+
+        protected final long sequence;
+
+        protected final boolean isEnd;
+
+        protected String text;
+
+        protected long timestamp;
+
+        protected String message;
+
+        protected String label;
+
+        protected boolean isRejected = false;
+
+        protected LabeledTweet tweet;
+
+        protected int classIndex;
+
+        protected String[] terms;
+
+        protected int[] counts;
+
+        protected int docSize;
+
+        protected int[] addIndices;
+
+        protected int[] attIndices;
+
+        protected double[] docFreqs;
+
+        protected double numOfDocs;
+
+        protected int numAttributes;
+
+        protected Instance instance;
+
+        protected Item(long sequence, boolean isEnd) {
+            this.sequence = sequence;
+            this.isEnd = isEnd;
+        }
+
+        public long getSequence() {
+            return this.sequence;
+        }
+
+        /**
+         * Whether this is the mark following the last line of a file.
+         */
+        public boolean isEnd() {
+            return this.isEnd;
+        }
+
+        public LabeledTweet getTweet() {
+            return this.tweet;
+        }
+
+        public Instance getInstance() {
+            return this.instance;
+        }
+    }
+
+    /** Time a thread waits for a tweet before checking it must stop */
+    protected static final long POLL_MILLIS = 100;
+
+    protected final FilterTfIdf filter;
+
+    protected final InstancesHeader header;
+
+    protected final EmoticonDictionary dictionary;
+
+    protected final String language;
+
+    protected final int[] numThreads;
+
+    /** Queue feeding each stage but the source, and the output of the last one */
+    protected final List<BoundedRingBuffer<Item>> queues = new ArrayList<BoundedRingBuffer<Item>>();
+
+    protected final BoundedRingBuffer<Item> output;
+
+    protected final List<Thread> threads = new ArrayList<Thread>();
+
+    protected volatile boolean isRunning = false;
+
+    /** First error thrown by a stage */
+    protected final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    protected long startTime;
+
+    protected final AtomicLongArray numProcessed = new AtomicLongArray(STAGE_NAMES.length);
+
+    protected final AtomicLongArray busyNanos = new AtomicLongArray(STAGE_NAMES.length);
+
+    // Input, for the source thread
+
+    protected BoundedRingBuffer<TweetWorkerPool.RawTweet> rawTweets;
+
+    protected BufferedReader reader;
+
+    protected long nextSequence = 0;
+
+    // Sketch stage
+
+    protected final InstancesHeader sketchHeader;
+
+    protected final Map<Long, Item> earlySketchItems = new HashMap<Long, Item>();
+
+    protected long nextSketch = 0;
+
+    protected SketchCheckpoint checkpoint;
+
+    protected int checkpointInterval = 0;
+
+    protected int checkpointInstances = 0;
+
+    // Output, for the thread calling poll
+
+    protected final Map<Long, Item> earlyOutputItems = new HashMap<Long, Item>();
+
+    protected long nextOutput = 0;
+
+    protected boolean isEndPolled = false;
+
+    /**
+     * @param numThreads - number of threads of the clean, language,
+     * tokenize and vectorize stages. The source and the sketch stages
+     * have one thread.
+     * @param capacity - capacity of the queue feeding each stage.
+     */
+    public TweetPipeline(FilterTfIdf filter, InstancesHeader header, EmoticonDictionary dictionary,
+            String language, int[] numThreads, int capacity) {
+        if (numThreads.length != 4) {
+            throw new IllegalArgumentException(
+                    "Four thread counts are needed: clean, language, tokenize and vectorize");
+        }
+        this.filter = filter;
+        this.header = header;
+        this.sketchHeader = new InstancesHeader(header);
+        this.dictionary = dictionary;
+        this.language = language;
+        this.numThreads = new int[]{1, numThreads[0], numThreads[1], numThreads[2], 1, numThreads[3]};
+        for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+            if (this.numThreads[stage] < 1) {
+                throw new IllegalArgumentException("At least one thread is needed for the "
+                        + STAGE_NAMES[stage] + " stage");
+            }
+            this.queues.add((stage == SOURCE) ? null
+                    : new BoundedRingBuffer<Item>(capacity, BoundedRingBuffer.BLOCK));
+        }
+        this.output = new BoundedRingBuffer<Item>(capacity, BoundedRingBuffer.BLOCK);
+    }
+
+    /**
+     * Parse thread counts written as "clean,language,tokenize,vectorize".
+     */
+    public static int[] parseThreads(String s) {
+        String[] parts = s.trim().split("\\s*,\\s*");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException(
+                    "Expected clean,language,tokenize,vectorize thread counts: " + s);
+        }
+        int[] numThreads = new int[4];
+        for (int i = 0; i < 4; i++) {
+            numThreads[i] = Integer.parseInt(parts[i]);
+        }
+        return numThreads;
+    }
+
+    /**
+     * Take a checkpoint of the sketch every interval tweets, from the
+     * sketch stage.
+     */
+    public void setCheckpoint(SketchCheckpoint checkpoint, int interval) {
+        this.checkpoint = checkpoint;
+        this.checkpointInterval = interval;
+    }
+
+    /**
+     * Start processing the raw tweets of a stream.
+     */
+    public synchronized void start(BoundedRingBuffer<TweetWorkerPool.RawTweet> rawTweets) {
+        this.rawTweets = rawTweets;
+        startThreads();
+    }
+
+    /**
+     * Start processing the lines of a .tweet file, which is closed at its
+     * end. The last item polled is then an end mark.
+     */
+    public synchronized void start(BufferedReader reader) {
+        this.reader = reader;
+        startThreads();
+    }
+
+    protected void startThreads() {
+        if (this.isRunning) {
+            throw new IllegalStateException("Pipeline already started");
+        }
+        this.isRunning = true;
+        this.startTime = System.nanoTime();
+        for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+            for (int i = 0; i < this.numThreads[stage]; i++) {
+                final int s = stage;
+                Thread thread = new Thread(new Runnable() {
+
+                    public void run() {
+                        if (s == SOURCE) {
+                            feed();
+                        } else {
+                            work(s);
+                        }
+                    }
+                }, "tweet-" + STAGE_NAMES[stage] + "-" + (i + 1));
+                thread.setDaemon(true);
+                this.threads.add(thread);
+                thread.start();
+            }
+        }
+    }
+
+    /**
+     * Stop the threads, leaving the tweets in progress.
+     */
+    public synchronized void shutdown() {
+        this.isRunning = false;
+        for (Thread thread : this.threads) {
+            thread.interrupt();
+        }
+        for (Thread thread : this.threads) {
+            try {
+                thread.join(1000);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        this.threads.clear();
+        if (this.reader != null) {
+            try {
+                this.reader.close();
+            } catch (IOException ex) {
+            }
+            this.reader = null;
+        }
+    }
+
+    /**
+     * Number the raw tweets or the lines of the file, and queue them for
+     * the clean stage. Lines already written as "message,label" skip the
+     * clean and language stages.
+     */
+    protected void feed() {
+        BoundedRingBuffer<Item> next = this.queues.get(CLEAN);
+        try {
+            while (this.isRunning) {
+                Item item;
+                if (this.reader != null) {
+                    String line = this.reader.readLine();
+                    long start = System.nanoTime();
+                    if (line == null) {
+                        this.reader.close();
+                        this.reader = null;
+                        next.put(new Item(this.nextSequence++, true));
+                        return;
+                    }
+                    item = new Item(this.nextSequence++, false);
+                    item.text = line;
+                    item.timestamp = System.currentTimeMillis();
+                    LabeledTweet labeledTweet = LabeledTweet.parse(line);
+                    if (labeledTweet != null) {
+                        String label = labeledTweet.getLabel();
+                        if (label.equals(EmoticonDictionary.NO_LABEL)
+                                || this.dictionary.getLabels().contains(label)) {
+                            item.tweet = labeledTweet;
+                        }
+                    }
+                    count(SOURCE, start);
+                } else {
+                    TweetWorkerPool.RawTweet raw = this.rawTweets.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (raw == null) {
+                        continue;
+                    }
+                    long start = System.nanoTime();
+                    item = new Item(this.nextSequence++, false);
+                    item.text = raw.getText();
+                    item.timestamp = raw.getTimestamp();
+                    count(SOURCE, start);
+                }
+                next.put(item);
+            }
+        } catch (IOException ex) {
+            System.err.println("Failed reading tweets: " + ex);
+            this.queues.get(CLEAN).put(new Item(this.nextSequence++, true));
+        } catch (InterruptedException ex) {
+            // Stopped
+        } catch (Throwable ex) {
+            fail(ex);
+        }
+    }
+
+    protected void work(int stage) {
+        BoundedRingBuffer<Item> input = this.queues.get(stage);
+        BoundedRingBuffer<Item> next = (stage == VECTORIZE) ? this.output : this.queues.get(stage + 1);
+        TweetCleaner cleaner = (stage == CLEAN) ? new TweetCleaner(this.dictionary) : null;
+        Tweet tweet = (stage == LANGUAGE) ? new Tweet(this.dictionary) : null;
+        FilterTfIdf.TermCounts termCounts = (stage == TOKENIZE) ? new FilterTfIdf.TermCounts() : null;
+        Attribute classAttribute = this.header.classAttribute();
+        try {
+            while (this.isRunning) {
+                Item item = input.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (item == null) {
+                    continue;
+                }
+                if (stage == SKETCH) {
+                    // Single thread, taking the tweets in order
+                    this.earlySketchItems.put(item.sequence, item);
+                    while ((item = this.earlySketchItems.remove(this.nextSketch)) != null) {
+                        this.nextSketch++;
+                        long start = System.nanoTime();
+                        if (!item.isEnd && !item.isRejected) {
+                            updateSketch(item);
+                            count(stage, start);
+                        }
+                        next.put(item);
+                    }
+                    continue;
+                }
+                long start = System.nanoTime();
+                if (!item.isEnd && !item.isRejected) {
+                    switch (stage) {
+                        case CLEAN:
+                            if (item.tweet == null) {
+                                item.message = cleaner.clean(item.text);
+                                item.label = cleaner.getType();
+                            }
+                            break;
+                        case LANGUAGE:
+                            if (item.tweet == null) {
+                                String s = tweet.filterLanguage(item.text, item.message, this.language);
+                                if (s != null && !s.equals("") && !s.equals(" ")) {
+                                    item.tweet = new LabeledTweet(s, item.label, this.language,
+                                            tweet.getConfidence(), item.timestamp);
+                                } else {
+                                    item.isRejected = true;
+                                }
+                            }
+                            item.text = null;
+                            item.message = null;
+                            break;
+                        case TOKENIZE:
+                            item.classIndex = classAttribute.indexOfValue(item.tweet.getLabel());
+                            item.docSize = termCounts.tokenize(item.tweet.getMessage());
+                            int numTerms = termCounts.size();
+                            item.terms = new String[numTerms];
+                            item.counts = new int[numTerms];
+                            for (int t = 0; t < numTerms; t++) {
+                                item.terms[t] = termCounts.getTerm(t);
+                                item.counts[t] = termCounts.getCount(t);
+                            }
+                            break;
+                        case VECTORIZE:
+                            item.instance = FilterTfIdf.vectorize(item.counts, item.terms.length,
+                                    item.docSize, item.attIndices, item.docFreqs, item.numOfDocs,
+                                    item.classIndex, this.header, item.numAttributes);
+                            item.counts = null;
+                            item.attIndices = null;
+                            item.docFreqs = null;
+                            break;
+                    }
+                    count(stage, start);
+                }
+                next.put(item);
+            }
+        } catch (InterruptedException ex) {
+            // Stopped
+        } catch (Throwable ex) {
+            fail(ex);
+        }
+    }
+
+    /**
+     * Keep the first error of a stage, for poll to throw, and stop the
+     * other stages, which would wait forever for the tweets it lost.
+     */
+    protected void fail(Throwable ex) {
+        if (this.isRunning) {
+            this.failure.compareAndSet(null, ex);
+            this.isRunning = false;
+        }
+    }
+
+    protected void updateSketch(Item item) {
+        int numTerms = item.terms.length;
+        item.addIndices = new int[numTerms];
+        item.attIndices = new int[numTerms];
+        item.docFreqs = new double[numTerms];
+        synchronized (this.filter) {
+            this.filter.updateSketch(item.terms, item.counts, numTerms, item.docSize,
+                    item.classIndex, this.sketchHeader, item.addIndices, item.attIndices,
+                    item.docFreqs);
+            item.numOfDocs = this.filter.getNumOfDocs();
+            item.numAttributes = this.sketchHeader.numAttributes();
+            if (this.checkpoint != null && this.checkpointInterval > 0
+                    && ++this.checkpointInstances % this.checkpointInterval == 0) {
+                this.checkpoint.checkpointAsync(this.filter, this.sketchHeader);
+            }
+        }
+    }
+
+    protected void count(int stage, long start) {
+        this.busyNanos.addAndGet(stage, System.nanoTime() - start);
+        this.numProcessed.incrementAndGet(stage);
+    }
+
+    /**
+     * Take the next tweet in order, with its instance, and update the
+     * header of the stream with its attributes. Must be called from a
+     * single thread.
+     *
+     * @return the item, which is the end mark after the last line of a
+     * file, or null if none came before the timeout
+     * @throws RuntimeException wrapping the error of a failed stage
+     */
+    public Item poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!this.isEndPolled) {
+            Item item = this.earlyOutputItems.remove(this.nextOutput);
+            if (item == null) {
+                checkFailure();
+                // Wait in steps, to see a failure without waiting the whole timeout
+                long nanos = Math.min(deadline - System.nanoTime(),
+                        TimeUnit.MILLISECONDS.toNanos(POLL_MILLIS));
+                item = (nanos > 0) ? this.output.poll(nanos, TimeUnit.NANOSECONDS) : this.output.poll();
+                if (item == null) {
+                    if (System.nanoTime() - deadline < 0) {
+                        continue;
+                    }
+                    checkFailure();
+                    return null;
+                }
+                if (item.sequence != this.nextOutput) {
+                    this.earlyOutputItems.put(item.sequence, item);
+                    continue;
+                }
+            }
+            this.nextOutput++;
+            if (item.isEnd) {
+                this.isEndPolled = true;
+                return item;
+            }
+            if (!item.isRejected) {
+                FilterTfIdf.updateHeader(this.header, item.terms, item.addIndices, item.terms.length);
+                item.terms = null;
+                item.addIndices = null;
+                return item;
+            }
+        }
+        return null;
+    }
+
+    protected void checkFailure() {
+        Throwable ex = this.failure.get();
+        if (ex != null) {
+            throw new RuntimeException("Tweet pipeline stopped by a failure", ex);
+        }
+    }
+
+    /**
+     * Copy of the header made by the sketch stage, matching the sketch
+     * once the pipeline is stopped.
+     */
+    public InstancesHeader getSketchHeader() {
+        return this.sketchHeader;
+    }
+
+    public int getNumThreads(int stage) {
+        return this.numThreads[stage];
+    }
+
+    /**
+     * Number of tweets processed by a stage, not counting the ones
+     * rejected before it.
+     */
+    public long getNumProcessed(int stage) {
+        return this.numProcessed.get(stage);
+    }
+
+    /**
+     * Tweets processed by a stage per second since the start.
+     */
+    public double getThroughput(int stage) {
+        double seconds = (System.nanoTime() - this.startTime) / 1e9;
+        return seconds > 0 ? getNumProcessed(stage) / seconds : 0;
+    }
+
+    /**
+     * Fraction of the time the threads of a stage were busy since the
+     * start, 1 when all of them always were.
+     */
+    public double getUtilization(int stage) {
+        double nanos = (double) (System.nanoTime() - this.startTime) * this.numThreads[stage];
+        return nanos > 0 ? this.busyNanos.get(stage) / nanos : 0;
+    }
+
+    /**
+     * Queue feeding a stage, with its depth and high water mark, or null
+     * for the source.
+     */
+    public BoundedRingBuffer<Item> getQueue(int stage) {
+        return this.queues.get(stage);
+    }
+
+    /**
+     * A line for each stage with its threads, tweets processed, throughput,
+     * utilization and queue depth.
+     */
+    public String getReport() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-10s %7s %10s %10s %6s %7s %7s%n", "stage", "threads",
+                "tweets", "tweets/s", "busy", "queue", "max"));
+        for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+            // The source is fed by the queue of raw tweets of the stream
+            BoundedRingBuffer<?> queue = (stage == SOURCE) ? this.rawTweets : this.queues.get(stage);
+            sb.append(String.format("%-10s %7d %10d %10.1f %5.1f%% %7s %7s%n", STAGE_NAMES[stage],
+                    this.numThreads[stage], getNumProcessed(stage), getThroughput(stage),
+                    100 * getUtilization(stage),
+                    queue == null ? "-" : String.valueOf(queue.size()),
+                    queue == null ? "-" : String.valueOf(queue.getHighWaterMark())));
+        }
+        sb.append(String.format("%-10s %7s %10s %10s %6s %7d %7d%n", "output", "", "", "", "",
+                this.output.size(), this.output.getHighWaterMark()));
+        return sb.toString();
+    }
+}
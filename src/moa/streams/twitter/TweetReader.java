@@ -27,12 +27,16 @@ import java.io.FileWriter;
 import java.io.Writer;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
 
 import moa.core.InstancesHeader;
 import moa.core.ObjectRepository;
 import moa.options.AbstractOptionHandler;
 import moa.options.ClassOption;
 import moa.options.FileOption;
+import moa.options.FlagOption;
+import moa.options.IntOption;
+import moa.options.MultiChoiceOption;
 import moa.options.StringOption;
 import moa.streams.InstanceStream;
 import moa.tasks.TaskMonitor;
@@ -59,6 +63,53 @@ public class TweetReader extends AbstractOptionHandler implements InstanceStream
     public FileOption inputTweetFileOption = new FileOption("inputTweetFile", 'i',
             "Input TWEET file.", null, "tweet", true);
 
+    public FileOption emoticonFileOption = new FileOption("emoticonFile", 'e',
+            "File of emoticons and class labels (default: H and S emoticons).", null, "txt", false);
+
+    public StringOption languageProfilesOption = new StringOption("languageProfiles", 'r',
+            "Directory of language profiles, or binary file made by LanguageProfiles.",
+            LanguageDetect.DEFAULT_PROFILE_DIRECTORY);
+
+    public StringOption profileLanguagesOption = new StringOption("profileLanguages", 'g',
+            "Comma separated languages to detect among (empty = all profiles).", "");
+
+    public FileOption checkpointFileOption = new FileOption("checkpointFile", 'c',
+            "File to restore the sketch and header from, and to save them to.", null, "sketch", true);
+
+    public IntOption checkpointIntervalOption = new IntOption("checkpointInterval", 'p',
+            "Number of instances between checkpoints (0 = only at shutdown).",
+            10000, 0, Integer.MAX_VALUE);
+
+    public IntOption bufferSizeOption = new IntOption("bufferSize", 'b',
+            "Number of tweets waiting to be read before the overflow policy applies.",
+            500, 1, 1 << 30);
+
+    public MultiChoiceOption overflowPolicyOption = new MultiChoiceOption("overflowPolicy", 'o',
+            "What to do with the tweets arriving when the buffer is full.",
+            BoundedRingBuffer.POLICY_LABELS, BoundedRingBuffer.POLICY_DESCRIPTIONS,
+            BoundedRingBuffer.DROP_OLDEST);
+
+    public IntOption maxWaitOption = new IntOption("maxWait", 'w',
+            "Milliseconds nextInstance waits for a tweet before returning null (0 = no limit).",
+            0, 0, Integer.MAX_VALUE);
+
+    public IntOption numWorkersOption = new IntOption("numWorkers", 'n',
+            "Number of threads cleaning the tweets and detecting their language.",
+            1, 1, Integer.MAX_VALUE);
+
+    public FlagOption virtualThreadsOption = new FlagOption("virtualThreads", 'v',
+            "Use virtual threads for the workers, if the JVM has them.");
+
+    public FlagOption unorderedOption = new FlagOption("unordered", 'u',
+            "Let the workers hand tweets out of their arrival order.");
+
+    public StringOption pipelineThreadsOption = new StringOption("pipelineThreads", 'x',
+            "Threads of the clean, language, tokenize and vectorize stages of a TweetPipeline, as 1,2,1,1 (empty = inline).",
+            "");
+
+    public FlagOption mappedFileOption = new FlagOption("mappedFile", 'm',
+            "Memory map the input file and clean chunks of it in parallel with numWorkers threads, without pipelineThreads.");
+
     protected Writer writer;
 
     protected BufferedReader reader;
@@ -73,12 +124,20 @@ public class TweetReader extends AbstractOptionHandler implements InstanceStream
 
     protected boolean hasMoreInstances = true;
 
-    protected String lastTweetRead;
+    protected LabeledTweet lastTweetRead;
 
     protected boolean isReadingFile;
 
     private Tweet tweet = new Tweet();
 
+    protected SketchCheckpoint checkpoint;
+
+    protected int checkpointInstances = 0;
+
+    protected TweetPipeline pipeline;
+
+    protected MappedTweetFileReader mappedReader;
+
     public TweetReader() {
     }
 
@@ -97,14 +156,17 @@ public class TweetReader extends AbstractOptionHandler implements InstanceStream
     protected void prepareForUseImpl(TaskMonitor arg0, ObjectRepository arg1) {
         File destFile = this.tweetFileOption.getFile();
         File inputFile = this.inputTweetFileOption.getFile();
+        String pipelineThreads = this.pipelineThreadsOption.getValue().trim();
+        boolean usePipeline = !pipelineThreads.equals("");
+        boolean useMappedFile = this.mappedFileOption.isSet() && !usePipeline;
         try {
             if (destFile != null) {
                 this.writer = new BufferedWriter(new FileWriter(destFile));
             }
             if (inputFile != null) {
-                this.reader = new BufferedReader(new FileReader(inputFile));
-                this.lastTweetRead = "";
-                this.hasMoreInstances = readNextTweetFromFile();
+                if (!useMappedFile) {
+                    this.reader = new BufferedReader(new FileReader(inputFile));
+                }
                 this.isReadingFile = true;
             } else {
                 this.isReadingFile = false;
@@ -113,11 +175,88 @@ public class TweetReader extends AbstractOptionHandler implements InstanceStream
             throw new RuntimeException(
                     "Failed writing to file " + destFile, ex);
         }
+        File emoticonFile = this.emoticonFileOption.getFile();
+        EmoticonDictionary dictionary = EmoticonDictionary.getDefault();
+        if (emoticonFile != null) {
+            try {
+                dictionary = EmoticonDictionary.load(emoticonFile);
+            } catch (IOException ex) {
+                throw new RuntimeException(
+                        "Failed reading emoticon file " + emoticonFile, ex);
+            }
+        }
+        this.tweet.setEmoticonDictionary(dictionary);
+        twitterStreamReader.setEmoticonDictionary(dictionary);
+
+        //The header is made with the sketch, and kept with it: its attributes
+        //are the indices the sketch gives out.
+        boolean isNewSketch = false;
+        if (this.filterTfIdf == null) {
+            ArrayList<String> classVal = new ArrayList<String>(dictionary.getLabels());
+            Attribute classAtt = new Attribute("class", classVal);
+
+            ArrayList<Attribute> wekaAtt = new ArrayList<Attribute>();
+            wekaAtt.add(classAtt);
+
+            this.streamHeader = new InstancesHeader(new Instances(
+                    getCLICreationString(InstanceStream.class), wekaAtt, 0));
+            this.streamHeader.setClassIndex(0);
+
+            Sketch sketch = (Sketch) getPreparedClassOption(this.sketchOption);
+            if (sketch instanceof SketchDiscriminative
+                    && classVal.size() != ((SketchDiscriminative) sketch).getNumClasses()) {
+                throw new IllegalArgumentException("SketchDiscriminative needs "
+                        + ((SketchDiscriminative) sketch).getNumClasses()
+                        + " emoticon labels, not " + classVal.size());
+            }
+            this.filterTfIdf = new FilterTfIdf(sketch);
+            isNewSketch = true;
+        }
+
+        File checkpointFile = this.checkpointFileOption.getFile();
+        if (checkpointFile != null) {
+            //Fail now rather than at the first checkpoint
+            SketchCheckpoint.checkSketch(this.filterTfIdf);
+            this.checkpoint = new SketchCheckpoint(checkpointFile);
+            if (isNewSketch && this.checkpoint.exists()) {
+                try {
+                    this.streamHeader = this.checkpoint.restore(this.filterTfIdf, this.streamHeader);
+                } catch (IOException ex) {
+                    throw new RuntimeException(
+                            "Failed reading checkpoint " + checkpointFile, ex);
+                }
+            }
+        }
+
         //if the language option is set, filter out the Tweets by language.
+        if (!this.languageFilterOption.getValue().equals("")) {
+            String profileLanguages = this.profileLanguagesOption.getValue().trim();
+            LanguageDetect.setProfiles(new File(this.languageProfilesOption.getValue()),
+                    profileLanguages.equals("") ? null : profileLanguages.split("\\s*,\\s*"));
+            LanguageDetect.loadInBackground();
+        }
+        if (this.isReadingFile && useMappedFile) {
+            try {
+                this.mappedReader = new MappedTweetFileReader(inputFile, dictionary,
+                        this.languageFilterOption.getValue(), this.numWorkersOption.getValue(),
+                        MappedTweetFileReader.DEFAULT_CHUNK_SIZE);
+            } catch (IOException ex) {
+                throw new RuntimeException(
+                        "Failed reading file " + inputFile, ex);
+            }
+            this.mappedReader.start();
+        }
+        if (this.isReadingFile && !usePipeline) {
+            this.hasMoreInstances = readNextTweetFromFile();
+        }
         twitterStreamReader.setLanguage(this.languageFilterOption.getValue());
+        twitterStreamReader.setBuffer(this.bufferSizeOption.getValue(),
+                this.overflowPolicyOption.getChosenIndex());
+        twitterStreamReader.setWorkers(usePipeline ? 0 : this.numWorkersOption.getValue(),
+                this.virtualThreadsOption.isSet(), !this.unorderedOption.isSet());
         twitterStreamReader.initStream();
         String[] queryTest = {this.queryStringOption.getValue()};
-        String[] queryTrain = {"=(", ":-(", ":(", ":{", ":[", "={", "=[", "=)", "=D", ":)", "=P", ":P", "=]", ";)"};
+        String[] queryTrain = dictionary.getEmoticons().toArray(new String[0]);
         if (this.queryStringOption.getValue() != "") {
             for (int i = 0; i < queryTrain.length; i++) {
                 queryTrain[i] = this.queryStringOption.getValue() + " " + queryTrain[i];
@@ -130,23 +269,50 @@ public class TweetReader extends AbstractOptionHandler implements InstanceStream
             twitterStreamReader.filter(queryTest);
         }
 
-        ArrayList<String> classVal = new ArrayList<String>();
-        classVal.add("H");
-        classVal.add("S");
-        Attribute classAtt = new Attribute("class", classVal);
+        if (usePipeline) {
+            this.pipeline = new TweetPipeline(this.filterTfIdf, this.streamHeader, dictionary,
+                    this.languageFilterOption.getValue(), TweetPipeline.parseThreads(pipelineThreads),
+                    this.bufferSizeOption.getValue());
+            this.pipeline.setCheckpoint(this.checkpoint, this.checkpointIntervalOption.getValue());
+            if (this.isReadingFile) {
+                this.pipeline.start(this.reader);
+                this.reader = null;
+            } else {
+                this.pipeline.start(this.twitterStreamReader.getBuffer());
+            }
+        }
+    }
 
-        ArrayList<Attribute> wekaAtt = new ArrayList<Attribute>();
-        wekaAtt.add(classAtt);
+    /**
+     * Sketch counting the tokens of the tweets, shared by all the streams.
+     */
+    public Sketch getSketch() {
+        return this.filterTfIdf != null ? this.filterTfIdf.getSketch() : null;
+    }
 
-        this.streamHeader = new InstancesHeader(new Instances(
-                getCLICreationString(InstanceStream.class), wekaAtt, 0));
-        this.streamHeader.setClassIndex(0);
+    /**
+     * Queue of the tweets received from Twitter, with its counters.
+     */
+    public BoundedRingBuffer<TweetWorkerPool.RawTweet> getTweetBuffer() {
+        return this.twitterStreamReader.getBuffer();
+    }
 
-        if (this.filterTfIdf == null) {
-            Sketch sketch = (Sketch) getPreparedClassOption(this.sketchOption);
-            this.filterTfIdf = new FilterTfIdf(sketch);
-        }
+    /**
+     * Counters of the tweets decided by each stage of the language filter,
+     * in all the threads, or null if the tweets are not filtered by
+     * language.
+     */
+    public LanguagePreFilter getLanguagePreFilter() {
+        String language = this.languageFilterOption.getValue();
+        return language.equals("") ? null : LanguagePreFilter.getInstance(language);
+    }
 
+    /**
+     * Stages preprocessing the tweets, with their counters, or null if the
+     * tweets are preprocessed inline.
+     */
+    public TweetPipeline getPipeline() {
+        return this.pipeline;
     }
 
     @Override
@@ -173,111 +339,229 @@ public class TweetReader extends AbstractOptionHandler implements InstanceStream
         return false;
     }
 
+    /**
+     * Wait for the next tweet, up to maxWait milliseconds if that option
+     * is set. The listener wakes this thread as soon as it queues a tweet.
+     *
+     * @return the instance, or null if no tweet came in time or the
+     * thread was interrupted
+     */
     @Override
     public Instance nextInstance() {
+        if (this.isReadingFile && this.pipeline == null) {
+            return checkIfThereIsAnyInstance();
+        }
+        int maxWait = this.maxWaitOption.getValue();
+        if (maxWait > 0) {
+            return nextInstance(maxWait);
+        }
         Instance inst = null;
-        if (this.isReadingFile) {
-            inst = checkIfThereIsAnyInstance();
-        } else {
-            boolean isTweetReady = false;
-            while (isTweetReady == false) {
-                //if there is a Tweet ready,
-                inst = checkIfThereIsAnyInstance();
-                if (inst == null) {
-                    //if there is currently no Tweet, wait before checking again.
-                    try {
-                        Thread.sleep(500);
-                        System.out.println("waiting...");
-                    } catch (InterruptedException x) {
-                    }
-                } else {
-                    isTweetReady = true;
-                }
-            }
+        while (inst == null && this.hasMoreInstances && !Thread.currentThread().isInterrupted()) {
+            inst = nextInstance(1000);
         }
         return inst;
     }
+
+    /**
+     * Wait for the next tweet up to timeout milliseconds.
+     *
+     * @return the instance, or null if no tweet came in time or the
+     * thread was interrupted
+     */
+    public Instance nextInstance(long timeout) {
+        return checkIfThereIsAnyInstance(TimeUnit.MILLISECONDS.toNanos(timeout));
+    }
+
     protected int numInstances = 0;
 
+    /**
+     * The next instance if a tweet is ready, without waiting.
+     *
+     * @return the instance, or null if there is no tweet
+     */
     public Instance checkIfThereIsAnyInstance() {
+        return checkIfThereIsAnyInstance(0);
+    }
+
+    protected Instance checkIfThereIsAnyInstance(long timeoutNanos) {
         //construct the instance and remove the Tweet from the waiting list.
         Instance inst = null;
-        String m="";
+        LabeledTweet m = null;
         numInstances++;
 
-        if (this.isReadingFile) {
+        if (this.pipeline != null) {
+            //the sketch is updated and checkpointed by the pipeline.
+            TweetPipeline.Item item = pollPipeline(timeoutNanos);
+            if (item != null && item.isEnd()) {
+                this.hasMoreInstances = false;
+            } else if (item != null) {
+                m = item.getTweet();
+                inst = item.getInstance();
+                if (!this.isReadingFile) {
+                    writeTweet(m);
+                }
+            }
+
+        } else if (this.isReadingFile) {
             m = this.lastTweetRead;
             this.hasMoreInstances = readNextTweetFromFile();
-            if (m != null && !m.equals("")) {
-                inst = this.filterTfIdf.filter(m, this.getHeader());
+            if (m != null) {
+                inst = filter(m);
             }
 
         } //System.out.println("CHECK "+this.twitterStreamReader.size());
-        else if (this.twitterStreamReader.size() > 0) {
-            //	System.out.println("CHECK "+this.twitterStreamReader.size());
-            m = this.twitterStreamReader.getAndRemove(0);
-            inst = this.filterTfIdf.filter(m, this.getHeader());
-            if (this.writer != null) {
-                try {
-                    writer.write(m);
-                    writer.write("\n");
-                } catch (Exception ex) {
-                    throw new RuntimeException(
-                            "Failed writing to file ", ex);
-                }
-            }
+        else if ((m = pollTweet(timeoutNanos)) != null) {
+            inst = filter(m);
+            writeTweet(m);
             //	System.out.println("CHECK "+m +" "+inst.classValue() );
             //	System.out.println("CHECK "+m + (!inst.classIsMissing() ? " TRAINING" :" TESTING"));
         }
-        	if (inst!= null) System.out.println("CHECK "+m +" " );
+        if (inst != null && this.pipeline == null
+                && this.checkpoint != null && this.checkpointIntervalOption.getValue() > 0) {
+            this.checkpointInstances++;
+            if (this.checkpointInstances % this.checkpointIntervalOption.getValue() == 0) {
+                this.checkpoint.checkpointAsync(this.filterTfIdf, this.streamHeader);
+            }
+        }
         return inst;
     }
 
+    /**
+     * Filter a tweet inline. The filter is shared with the other streams,
+     * whose pipeline may be updating it.
+     */
+    protected Instance filter(LabeledTweet m) {
+        synchronized (this.filterTfIdf) {
+            return this.filterTfIdf.filter(m, this.getHeader());
+        }
+    }
+
+    protected void writeTweet(LabeledTweet m) {
+        if (this.writer != null) {
+            try {
+                writer.write(m.toString());
+                writer.write("\n");
+            } catch (Exception ex) {
+                throw new RuntimeException(
+                        "Failed writing to file ", ex);
+            }
+        }
+    }
+
+    protected TweetPipeline.Item pollPipeline(long timeoutNanos) {
+        try {
+            return this.pipeline.poll(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    protected LabeledTweet pollTweet(long timeoutNanos) {
+        if (timeoutNanos <= 0) {
+            return this.twitterStreamReader.poll();
+        }
+        try {
+            return this.twitterStreamReader.poll(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
     @Override
     public void getDescription(StringBuilder arg0, int arg1) {
     }
 
+    /**
+     * Read the next line of the input file into lastTweetRead, which is
+     * null if the line gives no tweet.
+     *
+     * @return false at the end of the file
+     */
     protected boolean readNextTweetFromFile() {
         try {
-            if (this.lastTweetRead != null) { //end of file
-                this.lastTweetRead = reader.readLine();
-
-                if (this.lastTweetRead != null) {
-                    tweet.cleanTweets(this.lastTweetRead, this.languageFilterOption.getValue());
-                    String s = tweet.getMessage();
-                    if (s != null && !s.equals("") && !s.equals(" ")) {
-                        this.lastTweetRead = tweet.getMessage() + "," + tweet.getType();
-                    }
-                    return true;
-                } else {
-                    //this.filterTfIdf.printSpaceSaving();
-                }
+            this.lastTweetRead = null;
+            if (this.mappedReader != null) {
+                this.lastTweetRead = this.mappedReader.next();
+                return this.lastTweetRead != null;
             }
-            if (this.lastTweetRead == null) {
-                this.reader.close();
-                this.reader = null;
+            String line = (this.reader != null) ? this.reader.readLine() : null;
+            if (line == null) {
+                if (this.reader != null) {
+                    this.reader.close();
+                    this.reader = null;
+                }
+                return false;
             }
-            System.out.println(this.lastTweetRead != null);
-            return false;
+            this.lastTweetRead = readTweet(line);
+            return true;
         } catch (IOException ioe) {
             throw new RuntimeException(
                     "TwitterStream failed to read instance from stream.", ioe);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
         }
     }
 
+    /**
+     * Read a line of a .tweet file, either "message,label" as written to
+     * the destination file, where the message is already cleaned and
+     * filtered by language, or the text of a tweet to be cleaned.
+     *
+     * @return the tweet, or null if nothing is left after cleaning
+     */
+    protected LabeledTweet readTweet(String line) {
+        return readTweet(line, this.tweet, this.languageFilterOption.getValue());
+    }
+
+    /**
+     * Read a line of a .tweet file with a Tweet, for the threads of
+     * MappedTweetFileReader.
+     */
+    protected static LabeledTweet readTweet(String line, Tweet tweet, String languageFilter) {
+        LabeledTweet labeledTweet = LabeledTweet.parse(line);
+        if (labeledTweet != null) {
+            String label = labeledTweet.getLabel();
+            if (label.equals(EmoticonDictionary.NO_LABEL)
+                    || tweet.getEmoticonDictionary().getLabels().contains(label)) {
+                return labeledTweet;
+            }
+        }
+        tweet.cleanTweets(line, languageFilter);
+        String s = tweet.getMessage();
+        if (s != null && !s.equals("") && !s.equals(" ")) {
+            return tweet.getLabeledTweet(System.currentTimeMillis());
+        }
+        return null;
+    }
+
     @Override
     public void restart() {
     }
 
     public void shutdown() {
         this.twitterStreamReader.shutdown();
+        InstancesHeader sketchHeader = this.streamHeader;
+        if (this.pipeline != null) {
+            this.pipeline.shutdown();
+            System.out.print(this.pipeline.getReport());
+            sketchHeader = this.pipeline.getSketchHeader();
+        }
         try {
+            if (this.checkpoint != null) {
+                this.checkpoint.checkpoint(this.filterTfIdf, sketchHeader);
+            }
             if (this.writer != null) {
                 this.writer.close();
             }
             if (this.reader != null) {
                 this.reader.close();
             }
+            if (this.mappedReader != null) {
+                this.mappedReader.close();
+            }
         } catch (Exception ex) {
             throw new RuntimeException(
                     "Failed writing to file ", ex);
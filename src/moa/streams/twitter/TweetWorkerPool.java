@@ -0,0 +1,321 @@
+/*
+ *    TweetWorkerPool.java
+ *    Copyright (C) 2011 University of Waikato, Hamilton, New Zealand
+ *    @author Albert Bifet (abifet at cs dot waikato dot ac dot nz)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package moa.streams.twitter;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Threads cleaning the raw tweets queued by the listener of the stream and
+ * filtering them by language, each one with its own Tweet, so that the
+ * thread receiving the stream only queues text.
+ *
+ * Threads are virtual if asked and the JVM has them, found by reflection,
+ * and daemon platform threads otherwise. If the order is kept, each raw
+ * tweet gets a sequence number as it is taken, and the cleaned tweets are
+ * released in that order through a window of slots: a worker finishing a
+ * tweet more than a window ahead of the oldest one in progress waits.
+ * Raw tweets rejected by the cleaner release their slot without output.
+ *
+ * If a worker fails, the pool stops and checkFailure throws the failure.
+ *
+ */
+public class TweetWorkerPool {
+
+    /**
+     * Text and time of a status, as received.
+     */
+    public static class RawTweet {
+
+        protected final String text;
+
+        protected final long timestamp;
+
+        public RawTweet(String text, long timestamp) {
+            this.text = text;
+            this.timestamp = timestamp;
+        }
+
+        public String getText() {
+            return this.text;
+        }
+
+        public long getTimestamp() {
+            return this.timestamp;
+        }
+    }
+
+    /** Slot of a raw tweet that gave no output */
+    protected static final Object REJECTED = new Object();
+
+    /** Time a worker waits for a raw tweet before checking it must stop */
+    protected static final long POLL_MILLIS = 100;
+
+    protected final BoundedRingBuffer<RawTweet> input;
+
+    protected final BoundedRingBuffer<LabeledTweet> output;
+
+    protected final EmoticonDictionary dictionary;
+
+    protected final String language;
+
+    protected final int numThreads;
+
+    protected final boolean useVirtualThreads;
+
+    protected final boolean isOrdered;
+
+    protected final List<Thread> threads = new ArrayList<Thread>();
+
+    protected volatile boolean isRunning = false;
+
+    protected volatile boolean isVirtual = false;
+
+    /** First error of a worker */
+    protected final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    // Order of the output
+
+    protected final ReentrantLock takeLock = new ReentrantLock();
+
+    protected long nextSequence = 0;
+
+    protected final Object[] window;
+
+    protected long nextRelease = 0;
+
+    protected final AtomicLong numCleaned = new AtomicLong();
+
+    protected final AtomicLong numRejected = new AtomicLong();
+
+    public TweetWorkerPool(BoundedRingBuffer<RawTweet> input, BoundedRingBuffer<LabeledTweet> output,
+            EmoticonDictionary dictionary, String language, int numThreads,
+            boolean useVirtualThreads, boolean isOrdered) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("At least one worker is needed");
+        }
+        this.input = input;
+        this.output = output;
+        this.dictionary = dictionary;
+        this.language = language;
+        this.numThreads = numThreads;
+        this.useVirtualThreads = useVirtualThreads;
+        this.isOrdered = isOrdered;
+        this.window = new Object[Math.max(64, 8 * numThreads)];
+    }
+
+    public synchronized void start() {
+        if (this.isRunning) {
+            return;
+        }
+        this.isRunning = true;
+        ThreadFactory factory = this.useVirtualThreads ? virtualThreadFactory() : null;
+        this.isVirtual = (factory != null);
+        if (factory == null) {
+            factory = new ThreadFactory() {
+
+                private final AtomicInteger number = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "tweet-worker-" + this.number.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            };
+        }
+        for (int i = 0; i < this.numThreads; i++) {
+            Thread thread = factory.newThread(new Runnable() {
+
+                public void run() {
+                    work();
+                }
+            });
+            this.threads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Factory of virtual threads, or null if the JVM has none.
+     */
+    protected static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class)
+                    .invoke(builder, "tweet-worker-", 1L);
+            Method factory = builderClass.getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Stop the workers, leaving the raw tweets not taken yet in the queue.
+     */
+    public synchronized void shutdown() {
+        this.isRunning = false;
+        for (Thread thread : this.threads) {
+            thread.interrupt();
+        }
+        for (Thread thread : this.threads) {
+            try {
+                thread.join(1000);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        this.threads.clear();
+    }
+
+    protected void work() {
+        Tweet tweet = new Tweet(this.dictionary);
+        try {
+            while (this.isRunning) {
+                RawTweet raw;
+                long sequence = 0;
+                if (this.isOrdered) {
+                    this.takeLock.lockInterruptibly();
+                    try {
+                        raw = this.input.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                        if (raw != null) {
+                            sequence = this.nextSequence++;
+                        }
+                    } finally {
+                        this.takeLock.unlock();
+                    }
+                } else {
+                    raw = this.input.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                if (raw == null) {
+                    continue;
+                }
+
+                LabeledTweet labeledTweet = null;
+                tweet.cleanTweets(raw.getText(), this.language);
+                String s = tweet.getMessage();
+                if (s != null && !s.equals("") && !s.equals(" ")) {
+                    labeledTweet = tweet.getLabeledTweet(raw.getTimestamp());
+                    this.numCleaned.incrementAndGet();
+                } else {
+                    this.numRejected.incrementAndGet();
+                }
+
+                if (this.isOrdered) {
+                    release(sequence, labeledTweet);
+                } else if (labeledTweet != null) {
+                    this.output.put(labeledTweet);
+                }
+            }
+        } catch (InterruptedException ex) {
+            // Stopped
+        } catch (Throwable ex) {
+            fail(ex);
+        }
+    }
+
+    /**
+     * Keep the first error of a worker, for checkFailure to throw, and stop
+     * the other workers, which would wait forever in release for the slot
+     * it left empty.
+     */
+    protected void fail(Throwable ex) {
+        if (this.isRunning) {
+            this.failure.compareAndSet(null, ex);
+            this.isRunning = false;
+        }
+        synchronized (this.window) {
+            this.window.notifyAll();
+        }
+    }
+
+    /**
+     * @throws RuntimeException wrapping the error of a failed worker
+     */
+    public void checkFailure() {
+        Throwable ex = this.failure.get();
+        if (ex != null) {
+            throw new RuntimeException("Tweet workers stopped by a failure", ex);
+        }
+    }
+
+    /**
+     * Put a cleaned tweet in its slot, and output the tweets of the slots
+     * now complete from the oldest one.
+     */
+    protected void release(long sequence, LabeledTweet labeledTweet) throws InterruptedException {
+        synchronized (this.window) {
+            while (sequence - this.nextRelease >= this.window.length) {
+                if (!this.isRunning) {
+                    return;
+                }
+                this.window.wait();
+            }
+            this.window[(int) (sequence % this.window.length)] =
+                    (labeledTweet != null) ? labeledTweet : REJECTED;
+            boolean released = false;
+            int slot;
+            Object result;
+            while ((result = this.window[slot = (int) (this.nextRelease % this.window.length)]) != null) {
+                this.window[slot] = null;
+                if (result != REJECTED) {
+                    this.output.put((LabeledTweet) result);
+                }
+                this.nextRelease++;
+                released = true;
+            }
+            if (released) {
+                this.window.notifyAll();
+            }
+        }
+    }
+
+    public int getNumThreads() {
+        return this.numThreads;
+    }
+
+    /**
+     * Whether the workers run on virtual threads.
+     */
+    public boolean isVirtual() {
+        return this.isVirtual;
+    }
+
+    public long getNumCleaned() {
+        return this.numCleaned.get();
+    }
+
+    /**
+     * Number of raw tweets left empty by the cleaner or rejected by the
+     * language filter.
+     */
+    public long getNumRejected() {
+        return this.numRejected.get();
+    }
+}
@@ -19,7 +19,7 @@
  */
 package moa.streams.twitter;
 
-import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
 
 import twitter4j.FilterQuery;
 import twitter4j.Status;
@@ -38,14 +38,25 @@ public class TwitterStreamAPIReader implements TwitterStreamReader{
 
     private StatusListener listener;
 
-    private Tweet tweet = new Tweet();
+    protected EmoticonDictionary dictionary = EmoticonDictionary.getDefault();
 
     private TokenTwitterStreamingAPI tokens;
 
-    //The ArrayList to hold all the incoming Tweets.
-    protected ArrayList<String> tweetList = new ArrayList<String>();
+    //The queue of the raw Tweets, from the listener to the workers.
+    protected BoundedRingBuffer<TweetWorkerPool.RawTweet> rawTweetList =
+            new BoundedRingBuffer<TweetWorkerPool.RawTweet>(512, BoundedRingBuffer.DROP_OLDEST);
 
-    protected int sizeTweetList = 0;
+    //The queue to hold all the cleaned Tweets.
+    protected BoundedRingBuffer<LabeledTweet> tweetList =
+            new BoundedRingBuffer<LabeledTweet>(512, BoundedRingBuffer.BLOCK);
+
+    protected TweetWorkerPool workerPool;
+
+    protected int numWorkers = 1;
+
+    protected boolean useVirtualThreads = false;
+
+    protected boolean isOrdered = true;
 
     protected twitter4j.TwitterStream twitterStream;
 
@@ -58,6 +69,12 @@ public class TwitterStreamAPIReader implements TwitterStreamReader{
 
         makeListener();
 
+        if (this.numWorkers > 0) {
+            this.workerPool = new TweetWorkerPool(this.rawTweetList, this.tweetList, this.dictionary,
+                    language, this.numWorkers, this.useVirtualThreads, this.isOrdered);
+            this.workerPool.start();
+        }
+
         this.twitterStream = new TwitterStreamFactory().getInstance();
         twitterStream.addListener(listener);
 
@@ -85,36 +102,15 @@ public class TwitterStreamAPIReader implements TwitterStreamReader{
 
     /**
      * Creates the listener to deal with incomming Tweets.
-     * Cleans the new Tweet, filters it and adds it to the list of ready Tweets.
+     * Queues the text of the new Tweet for the workers, which clean it,
+     * filter it and add it to the list of ready Tweets.
      */
     private void makeListener() {
         listener = new StatusListener() {
 
             public void onStatus(Status status) {
-                if (sizeTweetList < 500) {
-                    
-                    //synchronized(tweet) {
-                    tweet.cleanTweets(status.getText(), language);
-                    String s = tweet.getMessage();
-
-                    //System.out.println("AFTER CLEANING: "+s);
-
-                    if (s != null && !s.equals("") && !s.equals(" ")) {
-                        //System.out.println("RECEIVED: "+ status.getText());
-                        String m = tweet.getMessage() + "," + tweet.getType();
-                        //System.out.println(sizeTweetList+" AFTER CLEANING: "+m);
-                        synchronized (tweetList) {
-                            tweetList.add(m);
-                            sizeTweetList++;
-                            //System.out.println("AFTER CLEANING: "+m);
-                        }
-                    }
-                    //}
-                } else {
-                    tweetList.remove(0);
-                    sizeTweetList--;
-                }
-
+                rawTweetList.put(new TweetWorkerPool.RawTweet(status.getText(),
+                        status.getCreatedAt().getTime()));
             }
 
             public void onDeletionNotice(StatusDeletionNotice statusDeletionNotice) {
@@ -139,6 +135,50 @@ public class TwitterStreamAPIReader implements TwitterStreamReader{
         this.language = language;
     }
 
+    public void setEmoticonDictionary(EmoticonDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Replace the queues of tweets, before the stream starts. The
+     * workers wait when the queue of cleaned tweets is full, so the
+     * policy applies to the raw tweets from the listener.
+     *
+     * @param capacity - rounded up to a power of two.
+     * @param policy - what to do with the tweets arriving when it is full,
+     * as defined in BoundedRingBuffer.
+     */
+    public void setBuffer(int capacity, int policy) {
+        this.rawTweetList = new BoundedRingBuffer<TweetWorkerPool.RawTweet>(capacity, policy);
+        this.tweetList = new BoundedRingBuffer<LabeledTweet>(capacity, BoundedRingBuffer.BLOCK);
+    }
+
+    /**
+     * The queue of raw tweets from the listener, with its counters of
+     * enqueued and dropped tweets.
+     */
+    public BoundedRingBuffer<TweetWorkerPool.RawTweet> getBuffer() {
+        return this.rawTweetList;
+    }
+
+    /**
+     * Set the threads cleaning the tweets, before the stream starts.
+     *
+     * @param numWorkers - number of threads, or 0 to leave the raw tweets
+     * to another consumer of getBuffer, such as TweetPipeline.
+     * @param useVirtualThreads - whether to use virtual threads, if the JVM has them.
+     * @param isOrdered - whether to keep the order of the tweets.
+     */
+    public void setWorkers(int numWorkers, boolean useVirtualThreads, boolean isOrdered) {
+        this.numWorkers = numWorkers;
+        this.useVirtualThreads = useVirtualThreads;
+        this.isOrdered = isOrdered;
+    }
+
+    public TweetWorkerPool getWorkerPool() {
+        return this.workerPool;
+    }
+
     /**
      * Start consuming public statuses that match one or more filter predicates.
      * At least one predicate parameter, follow, locations, or track must be specified.
@@ -166,27 +206,69 @@ public class TwitterStreamAPIReader implements TwitterStreamReader{
     }
 
     public int size() {
-        synchronized (tweetList) {
-            //if (this.tweetList.size()>0) System.out.println("SIZE "+this.tweetList.size());
-            //return sizeTweetList; //this.tweetList.size();
-            return this.tweetList.size();
-        }
+        return this.tweetList.size();
     }
 
-    public String getAndRemove(int position) {
-        //synchronized(tweetList) {
-        String ret = this.tweetList.get(position);
-        synchronized (tweetList) {
-            this.tweetList.remove(position);
-            sizeTweetList--;
+    /**
+     * Only the oldest tweet, at position 0, can be removed.
+     */
+    public LabeledTweet getAndRemove(int position) {
+        if (position != 0) {
+            throw new IllegalArgumentException("Only the oldest tweet can be removed");
+        }
+        LabeledTweet ret = this.tweetList.poll();
+        if (ret == null) {
+            throw new IndexOutOfBoundsException("No tweet queued");
         }
-        //System.out.println( "GET AND REMOVE "+ret);
         return ret;
-        //}
+    }
+
+    /**
+     * @throws RuntimeException wrapping the error of a failed worker
+     */
+    public LabeledTweet poll() {
+        checkFailure();
+        return this.tweetList.poll();
+    }
 
+    /**
+     * Wait for a tweet until one is queued by the listener.
+     *
+     * @return the oldest tweet, or null if none came before the timeout
+     * @throws RuntimeException wrapping the error of a failed worker
+     */
+    public LabeledTweet poll(long timeout, TimeUnit unit) throws InterruptedException {
+        if (this.workerPool == null) {
+            return this.tweetList.poll(timeout, unit);
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            checkFailure();
+            // Wait in steps, to see a failure without waiting the whole timeout
+            long nanos = Math.min(deadline - System.nanoTime(),
+                    TimeUnit.MILLISECONDS.toNanos(TweetWorkerPool.POLL_MILLIS));
+            LabeledTweet ret = (nanos > 0) ? this.tweetList.poll(nanos, TimeUnit.NANOSECONDS)
+                    : this.tweetList.poll();
+            if (ret != null) {
+                return ret;
+            }
+            if (System.nanoTime() - deadline >= 0) {
+                checkFailure();
+                return null;
+            }
+        }
+    }
+
+    protected void checkFailure() {
+        if (this.workerPool != null) {
+            this.workerPool.checkFailure();
+        }
     }
 
     public void shutdown() {
         this.twitterStream.shutdown();
+        if (this.workerPool != null) {
+            this.workerPool.shutdown();
+        }
     }
 }
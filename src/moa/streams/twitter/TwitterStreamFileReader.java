@@ -24,6 +24,7 @@ package moa.streams.twitter;
 
 import java.util.ArrayList;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -37,7 +38,7 @@ public class TwitterStreamFileReader implements TwitterStreamReader{
 
 	private Tweet tweet = new Tweet();
 	//The ArrayList to hold all the incoming Tweets.
-	protected ArrayList<String> tweetList = new ArrayList<String>();
+	protected ArrayList<LabeledTweet> tweetList = new ArrayList<LabeledTweet>();
 	
 	protected int[]    wordTwitterGenerator;
 	protected double[] freqTwitterGenerator;
@@ -160,7 +161,7 @@ public class TwitterStreamFileReader implements TwitterStreamReader{
 				}
 			} while (votes[1] == votes[2]);
 			String type = (votes[1]> votes[2]) ? "H" : "S";
-			String m = tweet + "," + type;
+			LabeledTweet m = new LabeledTweet(tweet, type);
 			//System.out.println(votes[1]+" "+votes[2]+" "+m);
 			tweetList.add(m);
 		}
@@ -178,7 +179,7 @@ public class TwitterStreamFileReader implements TwitterStreamReader{
 
 					if(s != null && !s.equals("") && !s.equals(" ") && tweet.getType() != "N")
 					{
-						String m = tweet.getMessage() + "," + tweet.getType();
+						LabeledTweet m = tweet.getLabeledTweet(System.currentTimeMillis());
 						tweetList.add(m);
 						
 					}
@@ -199,6 +200,11 @@ public class TwitterStreamFileReader implements TwitterStreamReader{
 		this.language = language;
 	}
 
+	public void setEmoticonDictionary(EmoticonDictionary dictionary)
+	{
+		this.tweet.setEmoticonDictionary(dictionary);
+	}
+
 	public void filter(String[] query) {
 		
 	}
@@ -206,7 +212,7 @@ public class TwitterStreamFileReader implements TwitterStreamReader{
 	public int size() {
 		return 1; //this.tweetList.size();
 	}
-	public String getAndRemove(int position) {
+	public LabeledTweet getAndRemove(int position) {
 		if (this.countTweets == this.changeTime) {
 			this.countTweets = 0;
 			//changePolarity(10);
@@ -214,9 +220,17 @@ public class TwitterStreamFileReader implements TwitterStreamReader{
 		}
 		generateTweets(1);
 		countTweets++;
-		String ret = this.tweetList.get(position);
+		LabeledTweet ret = this.tweetList.get(position);
 		this.tweetList.remove(position);
 		return ret;
 	}
+
+	public LabeledTweet poll() {
+		return getAndRemove(0);
+	}
+
+	public LabeledTweet poll(long timeout, TimeUnit unit) {
+		return getAndRemove(0);
+	}
 	public void shutdown(){}
 }
@@ -19,11 +19,16 @@
  */
 package moa.streams.twitter;
 
+import java.util.concurrent.TimeUnit;
+
 public interface TwitterStreamReader {
 	public void initStream();
 	public void filter(String[] query);
 	public int size();
 	public void setLanguage(String language);
-	public String getAndRemove(int position);
+	public void setEmoticonDictionary(EmoticonDictionary dictionary);
+	public LabeledTweet getAndRemove(int position);
+	public LabeledTweet poll();
+	public LabeledTweet poll(long timeout, TimeUnit unit) throws InterruptedException;
 	public void shutdown();
 }
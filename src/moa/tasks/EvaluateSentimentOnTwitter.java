@@ -54,6 +54,9 @@ public class EvaluateSentimentOnTwitter extends MainTask {
     }
     private static final long serialVersionUID = 1L;
 
+    /** Milliseconds to wait for a tweet when both streams are empty */
+    protected static final long POLL_MILLIS = 100;
+
     public ClassOption learnerOption = new ClassOption("learner", 'l',
             "Classifier to train.", Classifier.class, "bayes.NaiveBayes");
 
@@ -92,6 +95,13 @@ public class EvaluateSentimentOnTwitter extends MainTask {
     public FileOption dumpFileOption = new FileOption("dumpFile", 'd',
             "File to append intermediate csv results to.", null, "csv", true);
 
+    public FileOption checkpointFileOption = new FileOption("checkpointFile", 'c',
+            "File to restore the sketch and header from, and to save them to.", null, "sketch", true);
+
+    public IntOption checkpointIntervalOption = new IntOption("checkpointInterval", 'p',
+            "Number of training instances between checkpoints (0 = only at shutdown).",
+            10000, 0, Integer.MAX_VALUE);
+
     @Override
     public Class<?> getTaskResultType() {
         return LearningCurve.class;
@@ -102,6 +112,13 @@ public class EvaluateSentimentOnTwitter extends MainTask {
         Classifier learner = (Classifier) getPreparedClassOption(this.learnerOption);
 
         TweetReader streamTrain = new TweetReader(this.queryTrainOption.getValue(), this.languageFilterOption.getValue(), true); //isTraining
+        //Both streams share the sketch: the training stream, prepared first,
+        //restores it and saves it at shutdown, after the test stream.
+        File checkpointFile = this.checkpointFileOption.getFile();
+        if (checkpointFile != null) {
+            streamTrain.checkpointFileOption.setValue(checkpointFile.getPath());
+            streamTrain.checkpointIntervalOption.setValue(this.checkpointIntervalOption.getValue());
+        }
         streamTrain.prepareForUse();
         TweetReader streamTest = new TweetReader(this.queryTestOption.getValue(), this.languageFilterOption.getValue(), false);
         streamTest.prepareForUse();
@@ -155,7 +172,11 @@ public class EvaluateSentimentOnTwitter extends MainTask {
                 instTraining = streamTrain.checkIfThereIsAnyInstance();
             }
             if (streamTest.hasMoreInstances()) {
-                instTest = streamTest.checkIfThereIsAnyInstance();
+                // Wait a little for a test tweet when there is no training
+                // tweet either, instead of spinning
+                instTest = (instTraining == null)
+                        ? streamTest.nextInstance(POLL_MILLIS)
+                        : streamTest.checkIfThereIsAnyInstance();
             }
             if (instTraining != null) {
                 firstTrainingInstances++;
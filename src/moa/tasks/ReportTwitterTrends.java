@@ -0,0 +1,221 @@
+/*
+ *    ReportTwitterTrends.java
+ *    Copyright (C) 2011 University of Waikato, Hamilton, New Zealand
+ *    @author Albert Bifet (abifet at cs dot waikato dot ac dot nz)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package moa.tasks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import moa.core.ObjectRepository;
+import moa.options.ClassOption;
+import moa.options.FileOption;
+import moa.options.IntOption;
+import moa.options.StringOption;
+import moa.streams.twitter.Sketch;
+import moa.streams.twitter.SketchChangeListener;
+import moa.streams.twitter.SpaceSavingAdwin;
+import moa.streams.twitter.TweetReader;
+import weka.core.Instance;
+
+/**
+ * Task for reporting bursty and vanishing terms on a twitter stream, using
+ * the changes detected by the ADWIN counters of SpaceSavingAdwin.
+ *
+ * Every sampleFrequency instances the terms whose frequency changed are
+ * printed as CSV lines: instances, trend, attribute index, term, estimated
+ * frequency before the first change and after the last one.
+ *
+ * @author Albert Bifet (abifet at cs dot waikato dot ac dot nz)
+ */
+public class ReportTwitterTrends extends MainTask {
+
+    @Override
+    public String getPurposeString() {
+        return "Reports bursty and vanishing terms on a twitter stream.";
+    }
+    private static final long serialVersionUID = 1L;
+
+    public StringOption queryOption = new StringOption("query", 'q',
+            "Query string to use for obtaining tweets.", "");
+
+    public StringOption languageFilterOption = new StringOption("languageFilter", 'a',
+            "Filter by language.", "en");
+
+    public FileOption inputTweetFileOption = new FileOption("inputTweetFile", 'i',
+            "Input TWEET file, instead of the Twitter stream.", null, "tweet", false);
+
+    public ClassOption sketchOption = new ClassOption("sketch", 's',
+            "Sketch algorithm to use, it has to detect changes.", Sketch.class,
+            "SpaceSavingAdwin");
+
+    public IntOption instanceLimitOption = new IntOption("instanceLimit", 'n',
+            "Maximum number of instances to process (-1 = no limit).",
+            -1, -1, Integer.MAX_VALUE);
+
+    public IntOption sampleFrequencyOption = new IntOption("sampleFrequency",
+            'f', "How many instances between reports.",
+            1000, 1, Integer.MAX_VALUE);
+
+    public IntOption numTermsOption = new IntOption("numTerms", 'k',
+            "Maximum number of bursty and of vanishing terms in each report.",
+            10, 1, Integer.MAX_VALUE);
+
+    public FileOption dumpFileOption = new FileOption("dumpFile", 'd',
+            "File to append the reports to.", null, "csv", true);
+
+    /**
+     * Changes of a term since the last report.
+     */
+    protected static class Trend implements Comparable<Trend> {
+
+        int attIndex;
+
+        String token;
+
+        double oldEstimate;
+
+        double newEstimate;
+
+        Trend(int attIndex, String token, double oldEstimate) {
+            this.attIndex = attIndex;
+            this.token = token;
+            this.oldEstimate = oldEstimate;
+        }
+
+        double delta() {
+            return this.newEstimate - this.oldEstimate;
+        }
+
+        public int compareTo(Trend other) {
+            return Double.compare(Math.abs(other.delta()), Math.abs(delta()));
+        }
+    }
+
+    /**
+     * Keeps the first and the last estimation of every term changed since
+     * the last report.
+     */
+    protected static class TrendCollector implements SketchChangeListener {
+
+        protected Map<String, Trend> trends = new HashMap<String, Trend>();
+
+        public void changeDetected(int attIndex, String token, double oldEstimate,
+                double newEstimate, int numDoc) {
+            Trend trend = this.trends.get(token);
+            if (trend == null || trend.attIndex != attIndex) {
+                trend = new Trend(attIndex, token, oldEstimate);
+                this.trends.put(token, trend);
+            }
+            trend.newEstimate = newEstimate;
+        }
+
+        public void report(PrintStream out, long instances, int numTerms) {
+            List<Trend> bursty = new ArrayList<Trend>();
+            List<Trend> vanishing = new ArrayList<Trend>();
+            for (Trend trend : this.trends.values()) {
+                if (trend.delta() > 0) {
+                    bursty.add(trend);
+                } else if (trend.delta() < 0) {
+                    vanishing.add(trend);
+                }
+            }
+            print(out, instances, "bursty", bursty, numTerms);
+            print(out, instances, "vanishing", vanishing, numTerms);
+            out.flush();
+            this.trends.clear();
+        }
+
+        protected void print(PrintStream out, long instances, String type,
+                List<Trend> list, int numTerms) {
+            Collections.sort(list);
+            for (int i = 0; i < list.size() && i < numTerms; i++) {
+                Trend trend = list.get(i);
+                out.println(instances + "," + type + "," + trend.attIndex + ","
+                        + trend.token + "," + trend.oldEstimate + "," + trend.newEstimate);
+            }
+        }
+    }
+
+    @Override
+    public Class<?> getTaskResultType() {
+        return null;
+    }
+
+    @Override
+    protected Object doMainTask(TaskMonitor monitor, ObjectRepository repository) {
+        TweetReader stream = new TweetReader(this.queryOption.getValue(), this.languageFilterOption.getValue(), false);
+        stream.sketchOption.setValueViaCLIString(this.sketchOption.getValueAsCLIString());
+        if (this.inputTweetFileOption.getFile() != null) {
+            stream.inputTweetFileOption.setValue(this.inputTweetFileOption.getValue());
+        }
+        stream.prepareForUse();
+
+        Sketch sketch = stream.getSketch();
+        if (!(sketch instanceof SpaceSavingAdwin)) {
+            throw new IllegalArgumentException(
+                    "Trends need a sketch detecting changes, not " + sketch.getClass().getName());
+        }
+        TrendCollector collector = new TrendCollector();
+        ((SpaceSavingAdwin) sketch).setChangeListener(collector);
+
+        PrintStream out = System.out;
+        File dumpFile = this.dumpFileOption.getFile();
+        if (dumpFile != null) {
+            try {
+                out = new PrintStream(new FileOutputStream(dumpFile, dumpFile.exists()), true);
+            } catch (Exception ex) {
+                throw new RuntimeException(
+                        "Unable to open report file: " + dumpFile, ex);
+            }
+        }
+
+        monitor.setCurrentActivity("Reporting trends...", -1.0);
+        int maxInstances = this.instanceLimitOption.getValue();
+        long instancesProcessed = 0;
+        while (stream.hasMoreInstances()
+                && ((maxInstances < 0) || (instancesProcessed < maxInstances))) {
+            Instance inst = stream.nextInstance();
+            if (inst == null) {
+                continue;
+            }
+            instancesProcessed++;
+            if (instancesProcessed % this.sampleFrequencyOption.getValue() == 0) {
+                collector.report(out, instancesProcessed, this.numTermsOption.getValue());
+            }
+            if (instancesProcessed % INSTANCES_BETWEEN_MONITOR_UPDATES == 0) {
+                if (monitor.taskShouldAbort()) {
+                    break;
+                }
+            }
+        }
+        collector.report(out, instancesProcessed, this.numTermsOption.getValue());
+        ((SpaceSavingAdwin) sketch).setChangeListener(null);
+        if (out != System.out) {
+            out.close();
+        }
+        stream.shutdown();
+        return null;
+    }
+}